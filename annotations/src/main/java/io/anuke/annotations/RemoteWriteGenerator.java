@@ -30,9 +30,14 @@ public class RemoteWriteGenerator{
             //create builder
             TypeSpec.Builder classBuilder = TypeSpec.classBuilder(entry.name).addModifiers(Modifier.PUBLIC);
 
-            //add temporary write buffer
+            //add temporary write buffer; packets are serialized as soon as they are sent, so it can be direct and shared
             classBuilder.addField(FieldSpec.builder(ByteBuffer.class, "TEMP_BUFFER", Modifier.STATIC, Modifier.PRIVATE, Modifier.FINAL)
-                    .initializer("ByteBuffer.allocate($1L)", RemoteMethodAnnotationProcessor.maxPacketSize).build());
+                    .initializer("ByteBuffer.allocateDirect($1L)", RemoteMethodAnnotationProcessor.maxPacketSize).build());
+
+            //add reused packet; all write methods are synchronized on the class, and providers never pool sent packets
+            ClassName packetType = ClassName.bestGuess("mindustryV4.net.Packets.InvokePacket");
+            classBuilder.addField(FieldSpec.builder(packetType, "TEMP_PACKET", Modifier.STATIC, Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("new $T()", packetType).build());
 
             //go through each method entry in this class
             for(MethodEntry methodEntry : entry.methods){
@@ -128,8 +133,8 @@ public class RemoteWriteGenerator{
         //start control flow to check if it's actually client/server so no netcode is called
         method.beginControlFlow("if(" + getCheckString(methodEntry.where) + ")");
 
-        //add statement to create packet from pool
-        method.addStatement("$1N packet = $2N.obtain($1N.class, $1N::new)", "mindustryV4.net.Packets.InvokePacket", "ucore.util.Pooling");
+        //use the shared packet
+        method.addStatement("$1N packet = TEMP_PACKET", "mindustryV4.net.Packets.InvokePacket");
         //assign buffer
         method.addStatement("packet.writeBuffer = TEMP_BUFFER");
         //assign priority
@@ -137,7 +142,7 @@ public class RemoteWriteGenerator{
         //assign method ID
         method.addStatement("packet.type = (byte)" + methodEntry.id);
         //rewind buffer
-        method.addStatement("TEMP_BUFFER.position(0)");
+        method.addStatement("TEMP_BUFFER.clear()");
 
         for(int i = 0; i < elem.getParameters().size(); i++){
             //first argument is skipped as it is always the player caller
@@ -7,6 +7,7 @@ import com.badlogic.gdx.graphics.Color;
 import mindustryV4.core.*;
 import mindustryV4.entities.Player;
 import mindustryV4.entities.TileEntity;
+import mindustryV4.entities.TileScheduler;
 import mindustryV4.entities.bullet.Bullet;
 import mindustryV4.entities.effect.Fire;
 import mindustryV4.entities.effect.Puddle;
@@ -127,6 +128,9 @@ public class Vars{
 
     public static EntityGroup<Player> playerGroup;
     public static EntityGroup<TileEntity> tileGroup;
+    public static TileScheduler tileScheduler;
+    /**Timings of the stages of recent ticks.*/
+    public static TickProfiler profiler;
     public static EntityGroup<Bullet> bulletGroup;
     public static EntityGroup<EffectEntity> effectGroup;
     public static EntityGroup<DrawTrait> groundEffectGroup;
@@ -159,6 +163,8 @@ public class Vars{
 
         playerGroup = Entities.addGroup(Player.class).enableMapping();
         tileGroup = Entities.addGroup(TileEntity.class, false);
+        tileScheduler = new TileScheduler();
+        profiler = new TickProfiler();
         bulletGroup = Entities.addGroup(Bullet.class).enableMapping();
         effectGroup = Entities.addGroup(EffectEntity.class, false);
         groundEffectGroup = Entities.addGroup(DrawTrait.class, false);
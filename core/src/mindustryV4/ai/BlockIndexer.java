@@ -7,7 +7,6 @@ import mindustryV4.entities.TileEntity;
 import mindustryV4.game.EventType.TileChangeEvent;
 import mindustryV4.game.EventType.WorldLoadEvent;
 import mindustryV4.game.Team;
-import mindustryV4.game.Teams.TeamData;
 import mindustryV4.type.Item;
 import mindustryV4.world.Tile;
 import mindustryV4.world.meta.BlockFlag;
@@ -20,8 +19,6 @@ import ucore.util.ThreadArray;
 
 import static mindustryV4.Vars.*;
 
-//TODO consider using quadtrees for finding specific types of blocks within an area
-
 /**Class used for indexing special target blocks for AI.*/
 @SuppressWarnings("unchecked")
 public class BlockIndexer{
@@ -35,8 +32,8 @@ public class BlockIndexer{
     private final ObjectSet<Item> itemSet = new ObjectSet<>();
     /**Stores all ore quadtrants on the map.*/
     private ObjectMap<Item, ObjectSet<Tile>> ores;
-    /**Tags all quadrants.*/
-    private Bits[] structQuadrants;
+    /**Tile entity centers of each team, bucketed by structure quadrant. Buckets are created lazily.*/
+    private Array<Tile>[][] structTiles;
     /**Stores all damaged tile entities by team.*/
     private ObjectSet<Tile>[] damagedTiles = new ObjectSet[Team.all.length];
 
@@ -48,6 +45,8 @@ public class BlockIndexer{
     private ObjectSet<Tile> emptySet = new ObjectSet<>();
     /**Array used for returning and reusing.*/
     private Array<Tile> returnArray = new ThreadArray<>();
+    /**Distances of the tile entities currently in {@link #findTiles}'s output.*/
+    private FloatArray foundDistances = new FloatArray();
 
     public BlockIndexer(){
         Events.on(TileChangeEvent.class, event -> {
@@ -58,7 +57,7 @@ public class BlockIndexer{
                 }
             }
             process(event.tile);
-            updateQuadrant(event.tile);
+            updateStructure(event.tile);
         });
 
         Events.on(WorldLoadEvent.class, event -> {
@@ -74,17 +73,14 @@ public class BlockIndexer{
             typeMap.clear();
             ores = null;
 
-            //create bitset for each team type that contains each quadrant
-            structQuadrants = new Bits[Team.all.length];
-            for(int i = 0; i < Team.all.length; i++){
-                structQuadrants[i] = new Bits(Mathf.ceil(world.width() / (float) structQuadrantSize) * Mathf.ceil(world.height() / (float) structQuadrantSize));
-            }
+            structTiles = new Array[Team.all.length][quadWidth() * quadHeight()];
 
             for(int x = 0; x < world.width(); x++){
                 for(int y = 0; y < world.height(); y++){
                     Tile tile = world.tile(x, y);
 
                     process(tile);
+                    updateStructure(tile);
 
                     if(tile.entity != null && tile.entity.healthf() < 0.9999f){
                         notifyTileDamaged(tile.entity);
@@ -92,12 +88,6 @@ public class BlockIndexer{
                 }
             }
 
-            for(int x = 0; x < quadWidth(); x++){
-                for(int y = 0; y < quadHeight(); y++){
-                    updateQuadrant(world.tile(x * structQuadrantSize, y * structQuadrantSize));
-                }
-            }
-
             scanOres();
         });
     }
@@ -155,24 +145,26 @@ public class BlockIndexer{
         set.add(entity.tile);
     }
 
+    /**Returns the closest tile entity of a team within range that matches the predicate, or null if there is none.*/
     public TileEntity findTile(Team team, float x, float y, float range, Predicate<Tile> pred){
         TileEntity closest = null;
         float dst = 0;
 
-        for(int rx = Math.max((int) ((x - range) / tilesize / structQuadrantSize), 0); rx <= (int) ((x + range) / tilesize / structQuadrantSize) && rx < quadWidth(); rx++){
-            for(int ry = Math.max((int) ((y - range) / tilesize / structQuadrantSize), 0); ry <= (int) ((y + range) / tilesize / structQuadrantSize) && ry < quadHeight(); ry++){
+        int cx = quadrant(x), cy = quadrant(y), radius = quadrant(range) + 1;
 
-                if(!getQuad(team, rx, ry)) continue;
+        //scan rings of quadrants outwards, stopping once nothing in the next ring can be closer
+        for(int r = 0; r <= radius; r++){
+            if(closest != null && dst <= minRingDistance(r)) break;
 
-                for(int tx = rx * structQuadrantSize; tx < (rx + 1) * structQuadrantSize && tx < world.width(); tx++){
-                    for(int ty = ry * structQuadrantSize; ty < (ry + 1) * structQuadrantSize && ty < world.height(); ty++){
-                        Tile other = world.tile(tx, ty);
+            for(int rx = cx - r; rx <= cx + r; rx++){
+                for(int ry = cy - r; ry <= cy + r; ry += (rx == cx - r || rx == cx + r) ? 1 : r * 2){
+                    Array<Tile> tiles = getStructures(team, rx, ry);
 
-                        if(other == null) continue;
+                    if(tiles == null) continue;
 
-                        other = other.target();
-
-                        if(other.entity == null || other.getTeam() != team || !pred.test(other) || !other.block().targetable) continue;
+                    for(int i = 0; i < tiles.size; i++){
+                        Tile other = tiles.get(i);
+                        if(other.entity == null || !pred.test(other)) continue;
 
                         TileEntity e = other.entity;
 
@@ -189,6 +181,55 @@ public class BlockIndexer{
         return closest;
     }
 
+    /**
+     * Finds up to {@code amount} of the closest tile entities of a team within range that match the predicate.
+     * @param out array that is cleared and filled with the results, sorted by distance.
+     */
+    public Array<TileEntity> findTiles(Team team, float x, float y, float range, int amount, Predicate<Tile> pred, Array<TileEntity> out){
+        out.clear();
+        foundDistances.clear();
+
+        if(amount <= 0) return out;
+
+        int cx = quadrant(x), cy = quadrant(y), radius = quadrant(range) + 1;
+
+        for(int r = 0; r <= radius; r++){
+            if(out.size == amount && foundDistances.peek() <= minRingDistance(r)) break;
+
+            for(int rx = cx - r; rx <= cx + r; rx++){
+                for(int ry = cy - r; ry <= cy + r; ry += (rx == cx - r || rx == cx + r) ? 1 : r * 2){
+                    Array<Tile> tiles = getStructures(team, rx, ry);
+
+                    if(tiles == null) continue;
+
+                    for(int i = 0; i < tiles.size; i++){
+                        Tile other = tiles.get(i);
+                        if(other.entity == null || !pred.test(other)) continue;
+
+                        TileEntity e = other.entity;
+                        float ndst = Vector2.dst(x, y, e.x, e.y);
+
+                        if(ndst >= range || (out.size == amount && ndst >= foundDistances.peek())) continue;
+
+                        //insertion sort into the result, dropping the farthest one if full
+                        int index = foundDistances.size;
+                        while(index > 0 && foundDistances.get(index - 1) > ndst) index--;
+
+                        if(out.size == amount){
+                            out.pop();
+                            foundDistances.pop();
+                        }
+
+                        out.insert(index, e);
+                        foundDistances.insert(index, ndst);
+                    }
+                }
+            }
+        }
+
+        return out;
+    }
+
     /**
      * Returns a set of tiles that have ores of the specified type nearby.
      * While each tile in the set is not guaranteed to have an ore directly on it,
@@ -265,40 +306,42 @@ public class BlockIndexer{
         }
     }
 
-    private void updateQuadrant(Tile tile){
-        //this quadrant is now 'dirty', re-scan the whole thing
-        int quadrantX = tile.x / structQuadrantSize;
-        int quadrantY = tile.y / structQuadrantSize;
-        int index = quadrantX + quadrantY * quadWidth();
-
-        for(Team team : Team.all){
-            TeamData data = state.teams.get(team);
+    /**Removes a tile from the structure buckets, and adds it back if it is the center of a targetable tile entity.*/
+    private void updateStructure(Tile tile){
+        int index = tile.x / structQuadrantSize + tile.y / structQuadrantSize * quadWidth();
 
-            //fast-set this quadrant to 'occupied' if the tile just placed is already of this team
-            if(tile.getTeam() == data.team && tile.entity != null && tile.block().targetable){
-                structQuadrants[data.team.ordinal()].set(index);
-                continue; //no need to process futher
+        for(Array<Tile>[] buckets : structTiles){
+            if(buckets[index] != null){
+                buckets[index].removeValue(tile, true);
             }
+        }
 
-            structQuadrants[data.team.ordinal()].clear(index);
-
-            outer:
-            for(int x = quadrantX * structQuadrantSize; x < world.width() && x < (quadrantX + 1) * structQuadrantSize; x++){
-                for(int y = quadrantY * structQuadrantSize; y < world.height() && y < (quadrantY + 1) * structQuadrantSize; y++){
-                    Tile result = world.tile(x, y);
-                    //when a targetable block is found, mark this quadrant as occupied and stop searching
-                    if(result.entity != null && result.getTeam() == data.team){
-                        structQuadrants[data.team.ordinal()].set(index);
-                        break outer;
-                    }
-                }
+        if(tile.entity != null && !tile.isLinked() && tile.block().targetable){
+            Array<Tile>[] buckets = structTiles[tile.getTeam().ordinal()];
+            if(buckets[index] == null){
+                buckets[index] = new Array<>(false, 16);
             }
+            buckets[index].add(tile);
         }
     }
 
-    private boolean getQuad(Team team, int quadrantX, int quadrantY){
-        int index = quadrantX + quadrantY * Mathf.ceil(world.width() / (float) structQuadrantSize);
-        return structQuadrants[team.ordinal()].get(index);
+    /**Returns the bucket of tile entity centers in a quadrant, or null if it is empty or out of bounds.*/
+    private Array<Tile> getStructures(Team team, int quadrantX, int quadrantY){
+        if(quadrantX < 0 || quadrantY < 0 || quadrantX >= quadWidth() || quadrantY >= quadHeight()) return null;
+
+        Array<Tile> tiles = structTiles[team.ordinal()][quadrantX + quadrantY * quadWidth()];
+        return tiles == null || tiles.size == 0 ? null : tiles;
+    }
+
+    /**Converts a world coordinate to a structure quadrant coordinate.*/
+    private int quadrant(float coord){
+        return (int) (coord / tilesize / structQuadrantSize);
+    }
+
+    /**Returns the smallest possible distance between a point in quadrant ring 0 and an entity bucketed in ring r.
+     * Entity centers may be offset by up to a tile from the quadrant their tile is in.*/
+    private float minRingDistance(int r){
+        return (r - 1) * structQuadrantSize * tilesize - tilesize;
     }
 
     private int quadWidth(){
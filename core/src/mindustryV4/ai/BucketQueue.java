@@ -0,0 +1,65 @@
+package mindustryV4.ai;
+
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Circular bucket queue of packed tile positions, keyed by integer path weight (Dial's algorithm).
+ * All weights in the queue are expected to lie within {@link #range} of the lowest one;
+ * positions outside of that window are still returned, but out of order.
+ */
+public class BucketQueue{
+    /**Amount of buckets. Must be a power of two larger than the maximum tile cost.*/
+    public static final int range = 128;
+    private static final int mask = range - 1;
+
+    private final IntArray[] buckets = new IntArray[range];
+    private int cursor, size;
+
+    public BucketQueue(){
+        for(int i = 0; i < range; i++){
+            buckets[i] = new IntArray(false, 16);
+        }
+    }
+
+    /**Adds a packed position with the specified weight.*/
+    public void add(int pos, int weight){
+        if(size == 0 || weight < cursor){
+            cursor = weight;
+        }
+
+        buckets[weight & mask].add(pos);
+        size++;
+    }
+
+    /**Removes and returns a position with the lowest weight. The queue must not be empty.*/
+    public int poll(){
+        IntArray bucket;
+        while((bucket = buckets[cursor & mask]).size == 0){
+            cursor++;
+        }
+        size--;
+        return bucket.pop();
+    }
+
+    /**Returns the weight of the bucket that was last polled from.
+     * Any position with a weight below this has already been polled.*/
+    public int cursor(){
+        return cursor;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    public void clear(){
+        for(IntArray bucket : buckets){
+            bucket.clear();
+        }
+        size = 0;
+        cursor = 0;
+    }
+}
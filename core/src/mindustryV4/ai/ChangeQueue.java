@@ -0,0 +1,46 @@
+package mindustryV4.ai;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free, bounded ring buffer of packed longs.
+ * Only safe with exactly one producer thread and one consumer thread.
+ */
+public class ChangeQueue{
+    private final long[] items;
+    private final int mask;
+    /**Index of the next item to be read. Only written by the consumer.*/
+    private final AtomicLong head = new AtomicLong();
+    /**Index of the next item to be written. Only written by the producer.*/
+    private final AtomicLong tail = new AtomicLong();
+
+    /**@param capacity maximum amount of queued items, rounded up to a power of two.*/
+    public ChangeQueue(int capacity){
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        items = new long[size];
+        mask = size - 1;
+    }
+
+    /**Adds an item. Producer thread only.
+     * @return false if the queue is full, in which case nothing is added.*/
+    public boolean offer(long value){
+        long t = tail.get();
+        if(t - head.get() >= items.length) return false;
+
+        items[(int)(t & mask)] = value;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**Removes the oldest item. Consumer thread only. The queue must not be empty.*/
+    public long poll(){
+        long h = head.get();
+        long value = items[(int)(h & mask)];
+        head.lazySet(h + 1);
+        return value;
+    }
+
+    public boolean isEmpty(){
+        return head.get() >= tail.get();
+    }
+}
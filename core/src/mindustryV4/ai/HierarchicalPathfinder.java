@@ -0,0 +1,542 @@
+package mindustryV4.ai;
+
+import com.badlogic.gdx.math.GridPoint2;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntIntMap;
+import mindustryV4.game.EventType.TileChangeEvent;
+import mindustryV4.game.EventType.WorldLoadEvent;
+import mindustryV4.world.Block;
+import mindustryV4.world.Tile;
+import ucore.core.Events;
+import ucore.util.Geometry;
+import ucore.util.Mathf;
+
+import static mindustryV4.Vars.world;
+
+/**
+ * Hierarchical pathfinder for point-to-point ground routes.
+ * The map is split into square clusters. Passable runs of tiles along each cluster border become entrances,
+ * and the distances between the entrances of a cluster form an abstract graph which is searched with A*.
+ * The abstract route is then refined into tiles with small searches that never leave a single cluster.
+ * Tile changes only mark their cluster dirty; dirty clusters are rebuilt lazily on the next query.
+ * Blocks whose solidity changes without a tile change, such as doors, are polled in {@link #update()}.
+ */
+public class HierarchicalPathfinder{
+    /**Side length of one cluster, in tiles.*/
+    private static final int clusterSize = 16;
+    /**Maximum amount of entrances in a cluster; each side has at most one per two tiles.*/
+    private static final int maxEntrances = clusterSize * 2;
+    private static final int unreachable = Integer.MAX_VALUE;
+    /**Abstract node IDs of the route endpoints.*/
+    private static final int startNode = -1, goalNode = -2;
+
+    private Cluster[] clusters = {};
+    private int clustersX, clustersY;
+    private boolean dirty;
+    /**Incremented every time a tile changes anywhere. Never reset, so that it also changes when the world does.*/
+    private int version;
+    /**Solidity of tiles whose solidity changes without a tile change, such as doors or blocks under construction,
+     * by packed position; 1 if solid. These are checked again on every update.*/
+    private final IntIntMap dynamic = new IntIntMap();
+    /**Footprint of the block at the goal of the current query, which may be entered even though it is solid.
+     * Empty outside of queries, so that it never affects cluster distances.*/
+    private int goalX1, goalY1, goalX2 = -1, goalY2 = -1;
+
+    /**Local search state, indexed by position relative to the cluster origin.*/
+    private final int[] localWeights = new int[clusterSize * clusterSize];
+    private final int[] localParents = new int[clusterSize * clusterSize];
+    private final BucketQueue localQueue = new BucketQueue();
+
+    /**Abstract search state.*/
+    private final IntIntMap costs = new IntIntMap(), parents = new IntIntMap();
+    private long[] heap = new long[64];
+    private int heapSize, searchFrom, searchTo;
+    private int[] startDistances = new int[maxEntrances], goalDistances = new int[maxEntrances];
+    private final IntArray nodes = new IntArray(), segment = new IntArray();
+
+    public HierarchicalPathfinder(){
+        Events.on(WorldLoadEvent.class, event -> reset());
+        Events.on(TileChangeEvent.class, event -> {
+            if(clusters.length == 0) return;
+
+            Tile tile = event.tile;
+            if(isDynamic(tile)){
+                dynamic.put(tile.packedPosition(), tile.solid() ? 1 : 0);
+            }else{
+                dynamic.remove(tile.packedPosition(), 0);
+            }
+
+            markDirty(tile);
+        });
+    }
+
+    /**Checks all tiles whose solidity can change without a tile change, and marks the clusters of those that did.*/
+    public void update(){
+        for(IntIntMap.Entries entries = dynamic.entries(); entries.hasNext; ){
+            IntIntMap.Entry entry = entries.next();
+            Tile tile = world.tile(entry.key);
+            int solid = tile.solid() ? 1 : 0;
+
+            if(solid != entry.value){
+                //only changes the value of an existing key, which the iterator allows
+                dynamic.put(entry.key, solid);
+                markDirty(tile);
+            }
+        }
+    }
+
+    /**Returns a number that changes every time a tile changes anywhere.
+     * Only when it changed can a route be invalid, which {@link #version(IntArray)} then tells.*/
+    public int version(){
+        return version;
+    }
+
+    /**Returns a number that changes every time a tile changes in a cluster that a route passes through.
+     * Routes found before a change may go through tiles that are now blocked; changes elsewhere do not affect them.*/
+    public int version(IntArray route){
+        int result = 0, last = -1, size = world.width() * world.height();
+
+        for(int i = 0; i < route.size; i++){
+            if(route.get(i) >= size) continue;
+
+            Cluster cluster = clusterAt(route.get(i));
+            //cluster versions only grow, so the sum changes whenever any of them does
+            if(cluster.index != last){
+                result += cluster.version;
+                last = cluster.index;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds a ground route between two tiles.
+     * The start tile is allowed to be solid, and so is every tile of the block at the goal, such as a core.
+     * @param out filled with packed positions of every tile to walk through, excluding the start and including the goal.
+     * @return whether a route was found. If not, the output array is empty.
+     */
+    public boolean findPath(Tile from, Tile to, IntArray out){
+        out.clear();
+
+        if(clusters.length == 0 || from == null || to == null) return false;
+        if(from == to) return true;
+
+        rebuildDirty();
+
+        Tile target = to.target();
+        Block block = target.block();
+        goalX1 = target.x - (block.size - 1) / 2;
+        goalY1 = target.y - (block.size - 1) / 2;
+        goalX2 = goalX1 + block.size - 1;
+        goalY2 = goalY1 + block.size - 1;
+
+        boolean found = findRoute(from, to, out);
+        goalX2 = goalY2 = -1;
+
+        return found;
+    }
+
+    /**Finds a route once the goal footprint is set. See {@link #findPath(Tile, Tile, IntArray)}.*/
+    private boolean findRoute(Tile from, Tile to, IntArray out){
+        int fromPos = from.packedPosition(), toPos = to.packedPosition();
+        Cluster start = clusterAt(fromPos), goal = clusterAt(toPos);
+
+        //distances from the start to the entrances of its cluster
+        localSearch(start, fromPos, toPos);
+        int direct = start == goal ? localWeights[local(goal, toPos)] : unreachable;
+        for(int i = 0; i < start.entrances.size; i++){
+            startDistances[i] = localWeights[local(start, start.entrances.get(i))];
+        }
+
+        //distances from the entrances of the goal cluster to the goal, found by searching backwards
+        localSearch(goal, toPos, -1);
+        for(int i = 0; i < goal.entrances.size; i++){
+            int entrance = goal.entrances.get(i);
+            int weight = localWeights[local(goal, entrance)];
+            goalDistances[i] = weight == unreachable ? unreachable : weight - cost(entrance) + cost(toPos);
+        }
+
+        searchFrom = fromPos;
+        searchTo = toPos;
+
+        if(!search(start, goal, direct)) return false;
+
+        //refine each abstract edge into tiles
+        int last = fromPos;
+        for(int i = nodes.size - 2; i >= 0; i--){
+            int next = position(nodes.get(i));
+
+            if(clusterAt(last) != clusterAt(next)){
+                out.add(next);
+            }else{
+                localPath(clusterAt(last), last, next, segment);
+
+                //cluster distances are found with the same search, so this only happens if they are out of date
+                if(segment.size == 0){
+                    out.clear();
+                    return false;
+                }
+
+                out.addAll(segment);
+            }
+
+            last = next;
+        }
+
+        return true;
+    }
+
+    /**A* over the abstract graph. On success, {@link #nodes} holds the route from goal to start.*/
+    private boolean search(Cluster start, Cluster goal, int direct){
+        costs.clear();
+        parents.clear();
+        nodes.clear();
+        heapSize = 0;
+
+        costs.put(startNode, 0);
+        push(heuristic(searchFrom), startNode);
+
+        while(heapSize > 0){
+            long entry = pop();
+            int node = (int)entry;
+            int cost = costs.get(node, unreachable);
+
+            //skip entries that were superseded by a cheaper path
+            if((int)(entry >>> 32) > cost + heuristic(position(node))) continue;
+
+            if(node == goalNode){
+                for(int current = goalNode; current != startNode; current = parents.get(current, startNode)){
+                    nodes.add(current);
+                }
+                nodes.add(startNode);
+                return true;
+            }
+
+            if(node == startNode){
+                for(int i = 0; i < start.entrances.size; i++){
+                    relax(node, node(start, i), startDistances[i]);
+                }
+
+                relax(node, goalNode, direct);
+                continue;
+            }
+
+            Cluster cluster = clusters[node / maxEntrances];
+            int index = node % maxEntrances, size = cluster.entrances.size;
+            int pos = cluster.entrances.get(index), link = cluster.links.get(index);
+
+            for(int i = 0; i < size; i++){
+                int distance = cluster.distances[index * size + i];
+                if(i != index && distance != unreachable){
+                    relax(node, node(cluster, i), cost + distance);
+                }
+            }
+
+            //cross the border to the matching entrance of the neighbour
+            Cluster other = clusterAt(link);
+            for(int i = 0; i < other.entrances.size; i++){
+                if(other.entrances.get(i) == link && other.links.get(i) == pos){
+                    relax(node, node(other, i), cost + cost(link));
+                    break;
+                }
+            }
+
+            if(cluster == goal && goalDistances[index] != unreachable){
+                relax(node, goalNode, cost + goalDistances[index]);
+            }
+        }
+
+        return false;
+    }
+
+    private void relax(int from, int node, int cost){
+        if(cost == unreachable || cost >= costs.get(node, unreachable)) return;
+
+        costs.put(node, cost);
+        parents.put(node, from);
+        push(cost + heuristic(position(node)), node);
+    }
+
+    /**Manhattan distance to the goal; admissible, since every tile costs at least 1.*/
+    private int heuristic(int pos){
+        int width = world.width();
+        return Math.abs(pos % width - searchTo % width) + Math.abs(pos / width - searchTo / width);
+    }
+
+    /**Returns the tile position of an abstract node.*/
+    private int position(int node){
+        if(node == startNode) return searchFrom;
+        if(node == goalNode) return searchTo;
+        return clusters[node / maxEntrances].entrances.get(node % maxEntrances);
+    }
+
+    private int node(Cluster cluster, int entrance){
+        return cluster.index * maxEntrances + entrance;
+    }
+
+    /**Finds the tiles between two positions of the same cluster. The result excludes the origin.*/
+    private void localPath(Cluster cluster, int from, int to, IntArray out){
+        out.clear();
+        localSearch(cluster, from, to);
+
+        if(localWeights[local(cluster, to)] == unreachable) return;
+
+        for(int current = local(cluster, to); current != -1; current = localParents[current]){
+            out.add(cluster.x + current % clusterSize + (cluster.y + current / clusterSize) * world.width());
+        }
+
+        out.pop();
+        out.reverse();
+    }
+
+    /**
+     * Dijkstra search that is confined to one cluster.
+     * @param goal position that may be entered even if it is solid, and at which the search stops; -1 for none.
+     */
+    private void localSearch(Cluster cluster, int origin, int goal){
+        int width = world.width();
+
+        for(int i = 0; i < localWeights.length; i++){
+            localWeights[i] = unreachable;
+        }
+
+        int start = local(cluster, origin), end = goal == -1 || clusterAt(goal) != cluster ? -1 : local(cluster, goal);
+        localWeights[start] = 0;
+        localParents[start] = -1;
+        localQueue.clear();
+        localQueue.add(start, 0);
+
+        while(!localQueue.isEmpty()){
+            int current = localQueue.poll();
+            int weight = localWeights[current];
+
+            if(weight < localQueue.cursor()) continue;
+            if(current == end) break;
+
+            int lx = current % clusterSize, ly = current / clusterSize;
+
+            for(GridPoint2 point : Geometry.d4){
+                int nx = lx + point.x, ny = ly + point.y;
+
+                if(nx < 0 || ny < 0 || nx >= cluster.width || ny >= cluster.height) continue;
+
+                int other = nx + ny * clusterSize;
+                int pos = cluster.x + nx + (cluster.y + ny) * width;
+
+                if(other != end && !passable(pos) && !inGoal(pos)) continue;
+
+                int otherWeight = weight + cost(pos);
+                if(otherWeight < localWeights[other]){
+                    localWeights[other] = otherWeight;
+                    localParents[other] = current;
+                    localQueue.add(other, otherWeight);
+                }
+            }
+        }
+    }
+
+    private void rebuildDirty(){
+        if(!dirty) return;
+
+        for(Cluster cluster : clusters){
+            if(cluster.dirty){
+                rebuild(cluster);
+            }
+        }
+
+        dirty = false;
+    }
+
+    /**Finds the entrances of a cluster and the distances between them.*/
+    private void rebuild(Cluster cluster){
+        cluster.dirty = false;
+        cluster.entrances.clear();
+        cluster.links.clear();
+
+        int right = cluster.x + cluster.width - 1, top = cluster.y + cluster.height - 1;
+
+        if(cluster.x > 0) findEntrances(cluster, cluster.x, cluster.y, -1, 0, 0, 1, cluster.height);
+        if(right < world.width() - 1) findEntrances(cluster, right, cluster.y, 1, 0, 0, 1, cluster.height);
+        if(cluster.y > 0) findEntrances(cluster, cluster.x, cluster.y, 0, -1, 1, 0, cluster.width);
+        if(top < world.height() - 1) findEntrances(cluster, cluster.x, top, 0, 1, 1, 0, cluster.width);
+
+        int size = cluster.entrances.size;
+        if(cluster.distances.length < size * size){
+            cluster.distances = new int[size * size];
+        }
+
+        for(int i = 0; i < size; i++){
+            localSearch(cluster, cluster.entrances.get(i), -1);
+            for(int j = 0; j < size; j++){
+                cluster.distances[i * size + j] = localWeights[local(cluster, cluster.entrances.get(j))];
+            }
+        }
+    }
+
+    /**
+     * Scans one border of a cluster for runs of tiles that are passable on both sides,
+     * and adds an entrance in the middle of each run. Neighbouring clusters scan the same
+     * tiles from the other side, so their entrances always match up.
+     * @param ox outward x offset of the border
+     * @param oy outward y offset of the border
+     * @param dx x step along the border
+     * @param dy y step along the border
+     */
+    private void findEntrances(Cluster cluster, int x, int y, int ox, int oy, int dx, int dy, int length){
+        int runStart = -1;
+
+        for(int i = 0; i <= length; i++){
+            boolean open = i < length && passable(x + dx * i, y + dy * i) && passable(x + dx * i + ox, y + dy * i + oy);
+
+            if(open && runStart == -1){
+                runStart = i;
+            }else if(!open && runStart != -1){
+                int mid = (runStart + i - 1) / 2;
+                int tx = x + dx * mid, ty = y + dy * mid;
+                cluster.entrances.add(world.toPacked(tx, ty));
+                cluster.links.add(world.toPacked(tx + ox, ty + oy));
+                runStart = -1;
+            }
+        }
+    }
+
+    /**Marks the cluster of a tile dirty, along with the neighbouring clusters whose entrances it may affect.*/
+    private void markDirty(Tile tile){
+        int cx = tile.x / clusterSize, cy = tile.y / clusterSize;
+        Cluster cluster = clusters[cx + cy * clustersX];
+
+        markDirty(cx, cy);
+
+        //entrances on a border are shared with the neighbouring cluster
+        if(tile.x == cluster.x) markDirty(cx - 1, cy);
+        if(tile.y == cluster.y) markDirty(cx, cy - 1);
+        if(tile.x == cluster.x + cluster.width - 1) markDirty(cx + 1, cy);
+        if(tile.y == cluster.y + cluster.height - 1) markDirty(cx, cy + 1);
+    }
+
+    private void markDirty(int cx, int cy){
+        if(cx < 0 || cy < 0 || cx >= clustersX || cy >= clustersY) return;
+
+        Cluster cluster = clusters[cx + cy * clustersX];
+        cluster.dirty = true;
+        cluster.version++;
+        dirty = true;
+        version++;
+    }
+
+    private void reset(){
+        clustersX = Mathf.ceil(world.width() / (float) clusterSize);
+        clustersY = Mathf.ceil(world.height() / (float) clusterSize);
+        clusters = new Cluster[clustersX * clustersY];
+        dynamic.clear();
+
+        for(int cx = 0; cx < clustersX; cx++){
+            for(int cy = 0; cy < clustersY; cy++){
+                int x = cx * clusterSize, y = cy * clusterSize;
+                clusters[cx + cy * clustersX] = new Cluster(cx + cy * clustersX, x, y,
+                    Math.min(clusterSize, world.width() - x), Math.min(clusterSize, world.height() - y));
+                //start past every old version, so routes through the previous world don't look current
+                clusters[cx + cy * clustersX].version = version + 1;
+            }
+        }
+
+        for(int x = 0; x < world.width(); x++){
+            for(int y = 0; y < world.height(); y++){
+                Tile tile = world.rawTile(x, y);
+                if(isDynamic(tile)){
+                    dynamic.put(tile.packedPosition(), tile.solid() ? 1 : 0);
+                }
+            }
+        }
+
+        dirty = true;
+        version++;
+    }
+
+    /**@return whether the solidity of a tile depends on the state of its entity, which can change without a tile change.*/
+    private boolean isDynamic(Tile tile){
+        return tile.target().block().solidifes;
+    }
+
+    private boolean inGoal(int pos){
+        int width = world.width(), x = pos % width, y = pos / width;
+        return x >= goalX1 && y >= goalY1 && x <= goalX2 && y <= goalY2;
+    }
+
+    private Cluster clusterAt(int pos){
+        int width = world.width();
+        return clusters[(pos % width) / clusterSize + (pos / width) / clusterSize * clustersX];
+    }
+
+    private int local(Cluster cluster, int pos){
+        int width = world.width();
+        return (pos % width - cluster.x) + (pos / width - cluster.y) * clusterSize;
+    }
+
+    private boolean passable(int x, int y){
+        return !world.solid(x, y);
+    }
+
+    private boolean passable(int pos){
+        return !world.tile(pos).solid();
+    }
+
+    private int cost(int pos){
+        return world.tile(pos).cost;
+    }
+
+    private void push(int priority, int node){
+        if(heapSize == heap.length){
+            long[] copy = new long[heap.length * 2];
+            System.arraycopy(heap, 0, copy, 0, heapSize);
+            heap = copy;
+        }
+
+        long entry = ((long)priority << 32) | (node & 0xffffffffL);
+        int i = heapSize++;
+
+        while(i > 0 && heap[(i - 1) / 2] > entry){
+            heap[i] = heap[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        heap[i] = entry;
+    }
+
+    private long pop(){
+        long result = heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+
+        while(i * 2 + 1 < heapSize){
+            int child = i * 2 + 1;
+            if(child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+            if(heap[child] >= last) break;
+
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+
+        return result;
+    }
+
+    private class Cluster{
+        final int index, x, y, width, height;
+        /**Positions of entrance tiles inside this cluster, and of the tiles they lead to in the neighbouring cluster.*/
+        final IntArray entrances = new IntArray(), links = new IntArray();
+        /**Distances between entrances, indexed by [from * entrances + to].*/
+        int[] distances = {};
+        boolean dirty = true;
+        /**Incremented every time a tile in or next to this cluster changes.*/
+        int version;
+
+        Cluster(int index, int x, int y, int width, int height){
+            this.index = index;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+    }
+}
@@ -2,51 +2,160 @@ package mindustryV4.ai;
 
 import com.badlogic.gdx.math.GridPoint2;
 import com.badlogic.gdx.utils.IntArray;
-import com.badlogic.gdx.utils.Queue;
+import com.badlogic.gdx.utils.IntIntMap;
+import com.badlogic.gdx.utils.LongArray;
 import com.badlogic.gdx.utils.TimeUtils;
 import mindustryV4.game.EventType.TileChangeEvent;
 import mindustryV4.game.EventType.WorldLoadEvent;
 import mindustryV4.game.Team;
-import mindustryV4.game.Teams.TeamData;
 import mindustryV4.net.Net;
 import mindustryV4.world.Tile;
 import mindustryV4.world.meta.BlockFlag;
 import ucore.core.Events;
 import ucore.core.Timers;
 import ucore.util.Geometry;
-import ucore.util.Structs;
+import ucore.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
 
 import static mindustryV4.Vars.state;
 import static mindustryV4.Vars.world;
 
 public class Pathfinder{
+    /**Weight of tiles that cannot be reached.*/
+    static final int impassable = Integer.MAX_VALUE;
+
+    private static final int costMask = 0xff;
+    private static final int teamShift = 8;
+    private static final int solidBit = 1 << 16;
+    private static final int breakableBit = 1 << 17;
+    private static final int targetBit = 1 << 18;
+
+    /**Maximum amount of tile changes waiting for the worker thread.*/
+    private static final int maxQueuedChanges = 8192;
+
     private long maxUpdate = TimeUtils.millisToNanos(4);
     private PathData[] paths;
+    /**Packed pathing state of every tile, indexed by packed position. See {@link #packTile(Tile)}.
+     * When threaded, this is only accessed by the worker thread.*/
+    private int[] tiles = {};
+    private int width, height;
     private IntArray blocked = new IntArray();
+    /**Packed state of tiles whose solidity changes without a tile change, such as doors or blocks under construction,
+     * by packed position. These are packed again on every update. Main thread only.*/
+    private IntIntMap dynamic = new IntIntMap();
+    /**Whether tile changes repair the affected region only, instead of re-flooding the whole field.*/
+    private boolean incremental = true;
+    /**Positions and previous weights of tiles invalidated by a repair.*/
+    private IntArray invalidated = new IntArray(), invalidatedWeights = new IntArray();
+
+    /**Whether flow fields are computed on a separate worker thread.*/
+    private boolean threaded;
+    private Thread worker;
+    /**Tile changes and team activations sent to the worker thread. See {@link #packChange(int, int)}.*/
+    private final ChangeQueue changes = new ChangeQueue(maxQueuedChanges);
+    /**Changes that did not fit into the queue; re-sent on the next update.*/
+    private final LongArray overflow = new LongArray();
+    /**Amount of changes sent to the worker thread, and amount of those that it applied and published.*/
+    private long sentChanges;
+    private volatile long publishedChanges;
+    /**Team activity and relations used for flow fields. Copied from the game state on the main thread,
+     * so that the worker thread never reads it.*/
+    private volatile TeamState teams = new TeamState(0, new int[Team.all.length]);
+    private final int[] enemies = new int[Team.all.length];
 
     public Pathfinder(){
         Events.on(WorldLoadEvent.class, event -> clear());
         Events.on(TileChangeEvent.class, event -> {
             if(Net.client()) return;
 
-            for(Team team : Team.all){
-                TeamData data = state.teams.get(team);
-                if(state.teams.isActive(team) && data.team != event.tile.getTeam()){
-                    update(event.tile, data.team);
-                }
+            int pos = event.tile.packedPosition(), tile = packTile(event.tile);
+
+            if(isDynamic(event.tile)){
+                dynamic.put(pos, tile);
+            }else{
+                dynamic.remove(pos, 0);
             }
 
-            update(event.tile, event.tile.getTeam());
+            changed(pos, tile);
         });
     }
 
     public void activateTeamPath(Team team){
-        createFor(team);
+        refreshTeams();
+
+        if(worker != null){
+            send(packChange(-1 - team.ordinal(), 0));
+        }else{
+            createFor(team);
+        }
+    }
+
+    public boolean isThreaded(){
+        return threaded;
+    }
+
+    /**
+     * Sets whether flow fields are computed on a worker thread.
+     * The worker receives tile changes through a lock-free queue, always repairs them incrementally
+     * and publishes each finished field to a front buffer read by {@link #getTargetTile(Team, Tile)}.
+     * This is meant for servers with spare cores; it takes all pathfinding off the logic thread.
+     */
+    public void setThreaded(boolean threaded){
+        if(this.threaded == threaded) return;
+
+        stopWorker();
+        this.threaded = threaded;
+
+        if(paths != null){
+            clear();
+        }
+    }
+
+    public boolean isIncremental(){
+        return incremental;
+    }
+
+    /**Sets whether tile changes are repaired incrementally. Changing this rebuilds all active flow fields.*/
+    public void setIncremental(boolean incremental){
+        if(this.incremental == incremental) return;
+
+        this.incremental = incremental;
+
+        if(paths != null && worker == null){
+            for(Team team : Team.all){
+                if(state.teams.isActive(team)){
+                    createFor(team);
+                }
+            }
+        }
+    }
+
+    /**Returns whether the flow field of this team still has tiles left to process.
+     * When threaded, returns whether the worker has changes left that it did not publish yet, for any team.*/
+    public boolean isSearching(Team team){
+        if(paths == null) return false;
+        if(worker != null) return overflow.size > 0 || publishedChanges != sentChanges;
+        return !paths[team.ordinal()].frontier.isEmpty();
+    }
+
+    /**Returns the total amount of tiles expanded or invalidated for this team since its field was created.*/
+    public long getTouchedTiles(Team team){
+        return paths == null ? 0 : paths[team.ordinal()].touched;
     }
 
     public void update(){
         if(Net.client() || paths == null) return;
 
+        refreshTeams();
+        refreshDynamic();
+
+        if(worker != null){
+            flushOverflow();
+            return;
+        }
+
         for(Team team : Team.all){
             if(state.teams.isActive(team)){
                 updateFrontier(team, maxUpdate);
@@ -55,51 +164,255 @@ public class Pathfinder{
     }
 
     public Tile getTargetTile(Team team, Tile tile){
-        float[][] values = paths[team.ordinal()].weights;
+        int[] values = paths[team.ordinal()].front;
 
         if(values == null || tile == null) return tile;
 
-        float value = values[tile.x][tile.y];
+        int width = world.width();
+        int value = values[tile.x + tile.y * width];
 
         Tile target = null;
-        float tl = 0f;
+        int tl = 0;
         for(GridPoint2 point : Geometry.d8){
             int dx = tile.x + point.x, dy = tile.y + point.y;
 
             Tile other = world.tile(dx, dy);
             if(other == null) continue;
 
-            if(values[dx][dy] < value && (target == null || values[dx][dy] < tl) &&
+            int packed = dx + dy * width;
+
+            if(values[packed] < value && (target == null || values[packed] < tl) &&
                     !other.solid() &&
                     !(point.x != 0 && point.y != 0 && (world.solid(tile.x + point.x, tile.y) || world.solid(tile.x, tile.y + point.y)))){ //diagonal corner trap
                 target = other;
-                tl = values[dx][dy];
+                tl = values[packed];
             }
         }
 
-        if(target == null || tl == Float.MAX_VALUE) return tile;
+        if(target == null || tl == impassable) return tile;
 
         return target;
     }
 
     public float getValueForTeam(Team team, int x, int y){
-        return paths == null || team.ordinal() >= paths.length ? 0 : Structs.inBounds(x, y, paths[team.ordinal()].weights) ? paths[team.ordinal()].weights[x][y] : 0;
+        if(paths == null || team.ordinal() >= paths.length || x < 0 || y < 0 || x >= world.width() || y >= world.height()){
+            return 0;
+        }
+
+        int value = paths[team.ordinal()].front[x + y * world.width()];
+        return value == impassable ? Float.MAX_VALUE : value;
+    }
+
+    /**Packs the pathing-relevant state of a tile into an int: cost, team, solidity, breakability and target flag.*/
+    private int packTile(Tile tile){
+        return (tile.cost & costMask)
+            | (tile.getTeam().ordinal() << teamShift)
+            | (tile.solid() ? solidBit : 0)
+            | (tile.breakable() ? breakableBit : 0)
+            | (tile.block().flags != null && tile.block().flags.contains(BlockFlag.target) ? targetBit : 0);
+    }
+
+    /**@return whether the solidity of a tile depends on the state of its entity, which can change without a tile change.*/
+    private boolean isDynamic(Tile tile){
+        return tile.target().block().solidifes;
+    }
+
+    /**Copies team activity and relations from the game state, if they changed.*/
+    private void refreshTeams(){
+        int active = 0;
+        for(Team team : Team.all){
+            if(state.teams.isActive(team)) active |= 1 << team.ordinal();
+
+            int mask = 0;
+            for(Team other : Team.all){
+                if(state.teams.areEnemies(team, other)) mask |= 1 << other.ordinal();
+            }
+            enemies[team.ordinal()] = mask;
+        }
+
+        if(active != teams.active || !Arrays.equals(enemies, teams.enemies)){
+            teams = new TeamState(active, enemies.clone());
+        }
+    }
+
+    /**Packs all dynamic tiles again, and applies those that changed.*/
+    private void refreshDynamic(){
+        for(IntIntMap.Keys keys = dynamic.keys(); keys.hasNext; ){
+            int pos = keys.next();
+            int tile = packTile(world.tile(pos));
+
+            if(tile != dynamic.get(pos, 0)){
+                //only changes the value of an existing key, which the iterator allows
+                dynamic.put(pos, tile);
+                changed(pos, tile);
+            }
+        }
+    }
+
+    /**Applies a tile change, or sends it to the worker thread.*/
+    private void changed(int pos, int tile){
+        if(worker != null){
+            send(packChange(pos, tile));
+        }else{
+            applyChange(pos, tile);
+        }
+    }
+
+    private static int cost(int tile){
+        return tile & costMask;
+    }
+
+    private static int team(int tile){
+        return (tile >>> teamShift) & 0xff;
+    }
+
+    private boolean passable(int tile, Team team){
+        return (tile & solidBit) == 0 || ((tile & breakableBit) != 0 && team(tile) != team.ordinal());
+    }
+
+    private static long packChange(int pos, int tile){
+        return ((long)pos << 32) | (tile & 0xffffffffL);
+    }
+
+    /**Sends a change to the worker thread, keeping it for later if the queue is full.*/
+    private void send(long change){
+        sentChanges++;
+        if(overflow.size > 0 || !changes.offer(change)){
+            overflow.add(change);
+        }else{
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void flushOverflow(){
+        int sent = 0;
+        while(sent < overflow.size && changes.offer(overflow.get(sent))){
+            sent++;
+        }
+        if(sent > 0){
+            overflow.removeRange(0, sent - 1);
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**Updates the packed state of a tile and the flow fields of all teams that may path through it.*/
+    private void applyChange(int pos, int tile){
+        tiles[pos] = tile;
+
+        TeamState teams = this.teams;
+        for(Team team : Team.all){
+            if(teams.isActive(team) && team.ordinal() != team(tile)){
+                updateTile(pos, team);
+            }
+        }
+
+        updateTile(pos, Team.all[team(tile)]);
+    }
+
+    private void updateTile(int pos, Team team){
+        if(incremental || worker != null){
+            repair(pos, team);
+        }else{
+            update(pos, team);
+        }
+    }
+
+    /**Returns the weight a tile should have based on its neighbours' current weights.*/
+    private int localWeight(PathData path, int pos, Team team){
+        int tile = tiles[pos];
+
+        if((tile & targetBit) != 0 && teams.areEnemies(team(tile), team)) return 0;
+        if(!passable(tile, team)) return impassable;
+
+        int x = pos % width, y = pos / width;
+        int min = impassable;
+
+        for(GridPoint2 point : Geometry.d4){
+            int dx = x + point.x, dy = y + point.y;
+
+            if(dx < 0 || dy < 0 || dx >= width || dy >= height) continue;
+
+            min = Math.min(min, path.weights[dx + dy * width]);
+        }
+
+        return min == impassable ? impassable : min + cost(tile);
     }
 
-    private boolean passable(Tile tile, Team team){
-        return (!tile.solid()) || (tile.breakable() && (tile.target().getTeam() != team));
+    /**
+     * Repairs the flow field after a single tile changed.
+     * If the tile got cheaper, it is simply queued and the frontier spreads the decrease.
+     * Otherwise, every tile whose weight was derived from it is invalidated and re-seeded from its
+     * intact neighbours, so only the region that depended on the changed tile is re-relaxed.
+     */
+    private void repair(int pos, Team team){
+        PathData path = paths[team.ordinal()];
+
+        //fields of teams that were never activated have no weights to repair
+        if(path == null || path.search == 0) return;
+
+        int[] weights = path.weights;
+        int value = localWeight(path, pos, team);
+
+        if(value == weights[pos]) return;
+
+        path.dirty = true;
+
+        if(value < weights[pos]){
+            weights[pos] = value;
+            path.frontier.add(pos, value);
+            return;
+        }
+
+        invalidated.clear();
+        invalidatedWeights.clear();
+        invalidated.add(pos);
+        invalidatedWeights.add(weights[pos]);
+        weights[pos] = impassable;
+
+        //collect all tiles that have a path through the changed tile
+        for(int i = 0; i < invalidated.size; i++){
+            int current = invalidated.get(i), previous = invalidatedWeights.get(i);
+            int x = current % width, y = current / width;
+
+            for(GridPoint2 point : Geometry.d4){
+                int dx = x + point.x, dy = y + point.y;
+
+                if(dx < 0 || dy < 0 || dx >= width || dy >= height) continue;
+
+                int other = dx + dy * width;
+
+                if(weights[other] != impassable && weights[other] == previous + cost(tiles[other])){
+                    invalidated.add(other);
+                    invalidatedWeights.add(weights[other]);
+                    weights[other] = impassable;
+                }
+            }
+        }
+
+        path.touched += invalidated.size;
+
+        //re-seed the invalidated region from its boundary
+        for(int i = 0; i < invalidated.size; i++){
+            int current = invalidated.get(i);
+            int weight = localWeight(path, current, team);
+
+            if(weight != impassable){
+                weights[current] = weight;
+                path.frontier.add(current, weight);
+            }
+        }
     }
 
     /**Clears the frontier, increments the search and sets up all flow sources.
      * This only occurs for active teams.*/
-    private void update(Tile tile, Team team){
+    private void update(int pos, Team team){
         //make sure team exists
         if(paths[team.ordinal()] != null){
             PathData path = paths[team.ordinal()];
 
-            //impassable tiles have a weight of float.max
-            if(!passable(tile, team)){
-                path.weights[tile.x][tile.y] = Float.MAX_VALUE;
+            //impassable tiles have a weight of int.max
+            if(!passable(tiles[pos], team)){
+                path.weights[pos] = impassable;
             }
 
             //increment search, clear frontier
@@ -109,59 +422,71 @@ public class Pathfinder{
 
             //add all targets to the frontier
             for(Tile other : world.indexer.getEnemy(team, BlockFlag.target)){
-                path.weights[other.x][other.y] = 0;
-                path.searches[other.x][other.y] = path.search;
-                path.frontier.addFirst(other);
+                int packed = other.packedPosition();
+                path.weights[packed] = 0;
+                path.searches[packed] = path.search;
+                path.frontier.add(packed, 0);
             }
         }
     }
 
+    /**Floods the field of a team from scratch. When threaded, readers see the previous field until it is published.*/
     private void createFor(Team team){
-        PathData path = new PathData();
+        PathData path = paths[team.ordinal()];
         path.search++;
-        path.frontier.ensureCapacity((world.width() + world.height()) * 3);
-
-        paths[team.ordinal()] = path;
-
-        for(int x = 0; x < world.width(); x++){
-            for(int y = 0; y < world.height(); y++){
-                Tile tile = world.tile(x, y);
-
-                if(tile.block().flags != null && state.teams.areEnemies(tile.getTeam(), team)
-                        && tile.block().flags.contains(BlockFlag.target)){
-                    path.frontier.addFirst(tile);
-                    path.weights[x][y] = 0;
-                    path.searches[x][y] = path.search;
-                }else{
-                    path.weights[x][y] = Float.MAX_VALUE;
-                }
+        path.touched = 0;
+        path.frontier.clear();
+        TeamState teams = this.teams;
+
+        for(int i = 0; i < tiles.length; i++){
+            int tile = tiles[i];
+
+            if((tile & targetBit) != 0 && teams.areEnemies(team(tile), team)){
+                path.frontier.add(i, 0);
+                path.weights[i] = 0;
+                path.searches[i] = path.search;
+            }else{
+                path.weights[i] = impassable;
             }
         }
 
-        updateFrontier(team, -1);
+        updateFrontier(path, team, -1);
+        path.publish();
+        path.dirty = false;
     }
 
     private void updateFrontier(Team team, long nsToRun){
-        PathData path = paths[team.ordinal()];
+        updateFrontier(paths[team.ordinal()], team, nsToRun);
+    }
+
+    private void updateFrontier(PathData path, Team team, long nsToRun){
+        BucketQueue frontier = path.frontier;
+        int[] weights = path.weights, searches = path.searches;
 
         long start = TimeUtils.nanoTime();
 
-        while(path.frontier.size > 0 && (nsToRun < 0 || TimeUtils.timeSinceNanos(start) <= nsToRun)){
-            Tile tile = path.frontier.removeLast();
-            float cost = path.weights[tile.x][tile.y];
+        while(!frontier.isEmpty() && (nsToRun < 0 || TimeUtils.timeSinceNanos(start) <= nsToRun)){
+            int pos = frontier.poll();
+            int cost = weights[pos];
 
-            if(cost < Float.MAX_VALUE){
-                for(GridPoint2 point : Geometry.d4){
+            //positions that were lowered after being queued have already been expanded
+            if(cost == impassable || cost < frontier.cursor()) continue;
 
-                    int dx = tile.x + point.x, dy = tile.y + point.y;
-                    Tile other = world.tile(dx, dy);
+            int x = pos % width, y = pos / width;
+            path.touched++;
 
-                    if(other != null && (path.weights[dx][dy] > cost + other.cost || path.searches[dx][dy] < path.search)
-                            && passable(other, team)){
-                        path.frontier.addFirst(world.tile(dx, dy));
-                        path.weights[dx][dy] = cost + other.cost;
-                        path.searches[dx][dy] = path.search;
-                    }
+            for(GridPoint2 point : Geometry.d4){
+                int dx = x + point.x, dy = y + point.y;
+
+                if(dx < 0 || dy < 0 || dx >= width || dy >= height) continue;
+
+                int other = dx + dy * width;
+                int otherCost = cost + cost(tiles[other]);
+
+                if((weights[other] > otherCost || searches[other] < path.search) && passable(tiles[other], team)){
+                    frontier.add(other, otherCost);
+                    weights[other] = otherCost;
+                    searches[other] = path.search;
                 }
             }
         }
@@ -169,32 +494,165 @@ public class Pathfinder{
 
     private void clear(){
         Timers.mark();
+        stopWorker();
 
+        width = world.width();
+        height = world.height();
         paths = new PathData[Team.all.length];
+        tiles = new int[width * height];
         blocked.clear();
+        dynamic.clear();
 
+        for(int x = 0; x < width; x++){
+            for(int y = 0; y < height; y++){
+                Tile tile = world.rawTile(x, y);
+                tiles[x + y * width] = packTile(tile);
+
+                if(isDynamic(tile)){
+                    dynamic.put(x + y * width, tiles[x + y * width]);
+                }
+            }
+        }
+
+        refreshTeams();
+
+        //fields are never replaced afterwards, so the worker thread needs no synchronization to find them
         for(Team team : Team.all){
-            PathData path = new PathData();
-            paths[team.ordinal()] = path;
+            paths[team.ordinal()] = new PathData(team);
+        }
 
+        for(Team team : Team.all){
             if(state.teams.isActive(team)){
                 createFor(team);
             }
         }
 
         world.spawner.checkAllQuadrants();
+
+        if(threaded && !Net.client()){
+            startWorker();
+        }
     }
 
+    private void startWorker(){
+        sentChanges = publishedChanges = 0;
+        worker = new Thread(this::runWorker, "Pathfinder");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void stopWorker(){
+        if(worker == null) return;
+
+        worker.interrupt();
+        try{
+            worker.join();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
+        worker = null;
+        overflow.clear();
+        while(!changes.isEmpty()){
+            changes.poll();
+        }
+    }
+
+    private void runWorker(){
+        long applied = 0;
+
+        while(!Thread.currentThread().isInterrupted()){
+            try{
+                while(!changes.isEmpty()){
+                    long change = changes.poll();
+                    int pos = (int)(change >> 32);
+                    applied++;
+
+                    if(pos < 0){
+                        createFor(Team.all[-1 - pos]);
+                    }else{
+                        applyChange(pos, (int)change);
+                    }
+                }
+
+                //repairs that only raise weights leave the frontier empty, but must still be published
+                for(PathData path : paths){
+                    if(path.search != 0 && (path.dirty || !path.frontier.isEmpty())){
+                        updateFrontier(path, path.team, -1);
+                        path.publish();
+                        path.dirty = false;
+                    }
+                }
+
+                publishedChanges = applied;
+
+                if(changes.isEmpty()){
+                    LockSupport.park(this);
+                }
+            }catch(Throwable e){
+                Log.err(e);
+            }
+        }
+    }
+
+    /**Immutable copy of team activity and relations, as bit masks by team ordinal.*/
+    private static class TeamState{
+        final int active;
+        final int[] enemies;
+
+        TeamState(int active, int[] enemies){
+            this.active = active;
+            this.enemies = enemies;
+        }
+
+        boolean isActive(Team team){
+            return (active & (1 << team.ordinal())) != 0;
+        }
+
+        boolean areEnemies(int team, Team other){
+            return (enemies[team] & (1 << other.ordinal())) != 0;
+        }
+    }
+
+    /**
+     * Flow field of one team. Weights and search IDs are indexed by packed tile position.
+     * When threaded, weights are only written by the worker, and copied to the back buffer which is then
+     * swapped with the front buffer once the frontier is drained. Otherwise, the front buffer is the weights themselves.
+     */
     class PathData{
-        float[][] weights;
-        int[][] searches;
+        final Team team;
+        int[] weights;
+        int[] searches;
         int search = 0;
         long lastSearchTime;
-        Queue<Tile> frontier = new Queue<>();
+        long touched;
+        /**Whether weights changed since they were last published.*/
+        boolean dirty;
+        BucketQueue frontier = new BucketQueue();
+        volatile int[] front;
+        int[] back;
+
+        PathData(Team team){
+            this.team = team;
+            weights = new int[tiles.length];
+            searches = new int[tiles.length];
+
+            if(threaded){
+                front = new int[tiles.length];
+                back = new int[tiles.length];
+            }else{
+                front = weights;
+            }
+        }
+
+        /**Makes the current weights visible to readers.*/
+        void publish(){
+            if(front == weights) return;
 
-        PathData(){
-            weights = new float[world.width()][world.height()];
-            searches = new int[world.width()][world.height()];
+            System.arraycopy(weights, 0, back, 0, weights.length);
+            int[] last = front;
+            front = back;
+            back = last;
         }
     }
 }
@@ -5,7 +5,7 @@ import io.anuke.annotations.Annotations.Loc;
 import io.anuke.annotations.Annotations.Remote;
 import mindustryV4.Vars;
 import mindustryV4.core.GameState.State;
-import mindustryV4.entities.TileEntity;
+import mindustryV4.entities.bullet.BulletBatch;
 import mindustryV4.game.EventType.*;
 import mindustryV4.game.GameMode;
 import mindustryV4.game.Team;
@@ -34,8 +34,19 @@ import static mindustryV4.Vars.*;
  * This class should <i>not</i> call any outside methods to change state of modules, but instead fire events.
  */
 public class Logic extends Module{
+    private final int tickStage = profiler.register("tick"), waveStage = profiler.register("waves"),
+        effectStage = profiler.register("effects"), puddleStage = profiler.register("puddles"), shieldStage = profiler.register("shields"),
+        bulletStage = profiler.register("bullets"), tileStage = profiler.register("tiles"), fireStage = profiler.register("fires"),
+        playerStage = profiler.register("players"), bulletCollisionStage = profiler.register("collisions-bullets"),
+        playerCollisionStage = profiler.register("collisions-players"), pathfinderStage = profiler.register("pathfinder");
+    private final int[] unitStages = new int[Team.all.length];
+    private final BulletBatch bulletBatch = new BulletBatch();
 
     public Logic(){
+        for(Team team : Team.all){
+            unitStages[team.ordinal()] = profiler.register("units-" + team.name());
+        }
+
         Events.on(TileChangeEvent.class, event -> {
             if(event.tile.getTeam() == defaultTeam && Recipe.getByResult(event.tile.block()) != null){
                 handleContent(Recipe.getByResult(event.tile.block()));
@@ -52,6 +63,12 @@ public class Logic extends Module{
         });
     }
 
+    private void update(EntityGroup<?> group, int stage){
+        profiler.begin(stage);
+        Entities.update(group);
+        profiler.end(stage);
+    }
+
     /**Handles the event of content being used by either the player or some block.*/
     public void handleContent(UnlockableContent content){
         if(world.getSector() != null){
@@ -87,7 +104,7 @@ public class Logic extends Module{
 
         Timers.clear();
         Entities.clear();
-        TileEntity.sleepingEntities = 0;
+        tileScheduler.clear();
 
         Events.fire(new ResetEvent());
     }
@@ -179,6 +196,7 @@ public class Logic extends Module{
         if(!state.is(State.menu)){
 
             if(!state.isPaused()){
+                profiler.begin(tickStage);
                 Timers.update();
 
                 if(!state.mode.disableWaveTimer && !state.mode.disableWaves && !state.gameOver){
@@ -186,43 +204,54 @@ public class Logic extends Module{
                 }
 
                 if(!Net.client() && state.wavetime <= 0 && !state.mode.disableWaves){
+                    profiler.begin(waveStage);
                     runWave();
+                    profiler.end(waveStage);
                 }
 
                 if(!Entities.defaultGroup().isEmpty())
                     throw new RuntimeException("Do not add anything to the default group!");
 
                 if(!headless){
-                    Entities.update(effectGroup);
-                    Entities.update(groundEffectGroup);
+                    update(effectGroup, effectStage);
+                    update(groundEffectGroup, effectStage);
                 }
 
-                for(EntityGroup group : unitGroups){
-                    Entities.update(group);
+                for(int i = 0; i < unitGroups.length; i++){
+                    update(unitGroups[i], unitStages[i]);
                 }
 
-                Entities.update(puddleGroup);
-                Entities.update(shieldGroup);
-                Entities.update(bulletGroup);
-                Entities.update(tileGroup);
-                Entities.update(fireGroup);
-                Entities.update(playerGroup);
+                update(puddleGroup, puddleStage);
+                update(shieldGroup, shieldStage);
+                update(bulletGroup, bulletStage);
+
+                profiler.begin(tileStage);
+                tileScheduler.update();
+                profiler.end(tileStage);
+
+                update(fireGroup, fireStage);
+                update(playerGroup, playerStage);
 
                 //effect group only contains item transfers in the headless version, update it!
                 if(headless){
-                    Entities.update(effectGroup);
+                    update(effectGroup, effectStage);
                 }
 
-                for(EntityGroup group : unitGroups){
-                    if(group.isEmpty()) continue;
-
-                    EntityQuery.collideGroups(bulletGroup, group);
-                }
+                profiler.begin(bulletCollisionStage);
+                bulletBatch.collide();
+                profiler.end(bulletCollisionStage);
 
-                EntityQuery.collideGroups(bulletGroup, playerGroup);
+                profiler.begin(playerCollisionStage);
                 EntityQuery.collideGroups(playerGroup, playerGroup);
+                profiler.end(playerCollisionStage);
 
+                profiler.begin(pathfinderStage);
                 world.pathfinder.update();
+                world.routes.update();
+                profiler.end(pathfinderStage);
+
+                profiler.end(tickStage);
+                profiler.endTick();
             }
 
             if(!Net.client() && !world.isInvalidMap()){
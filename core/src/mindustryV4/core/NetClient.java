@@ -18,11 +18,14 @@ import mindustryV4.entities.traits.TypeTrait;
 import mindustryV4.game.Version;
 import mindustryV4.gen.Call;
 import mindustryV4.gen.RemoteReadClient;
+import mindustryV4.net.BitReader;
+import mindustryV4.net.EntitySnapshot;
 import mindustryV4.net.Net;
 import mindustryV4.net.Net.SendMode;
-import mindustryV4.net.NetworkIO;
 import mindustryV4.net.Packets.*;
+import mindustryV4.net.SnapshotHistory;
 import mindustryV4.net.ValidateException;
+import mindustryV4.net.WorldStreamReader;
 import mindustryV4.world.Tile;
 import mindustryV4.world.modules.ItemModule;
 import ucore.core.Core;
@@ -39,7 +42,6 @@ import ucore.util.Timer;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.Random;
-import java.util.zip.InflaterInputStream;
 
 import static mindustryV4.Vars.*;
 
@@ -74,6 +76,20 @@ public class NetClient extends Module{
     private ReusableByteArrayInputStream byteStream = new ReusableByteArrayInputStream();
     private DataInputStream dataStream = new DataInputStream(byteStream);
 
+    /**ID of the last snapshot that was applied, sent to the server as delta baseline. -1 requests a full snapshot.*/
+    private int lastAckedSnapshot = -1;
+    /**Entity state of recently recieved snapshots, used to rebuild delta snapshots.*/
+    private SnapshotHistory snapshots = new SnapshotHistory(NetServer.snapshotHistory);
+    /**Reused entity state for the snapshot that is being read.*/
+    private EntitySnapshot nextSnapshot = new EntitySnapshot();
+    /**Entities removed from the baseline in the snapshot that is being read.*/
+    private EntitySnapshot removedEntries = new EntitySnapshot();
+    /**Stream for reading single entity entries.*/
+    private ReusableByteArrayInputStream entryStream = new ReusableByteArrayInputStream();
+    private DataInputStream entryInput = new DataInputStream(entryStream);
+    /**Loads world data while it is being recieved.*/
+    private WorldStreamReader worldReader = new WorldStreamReader();
+
     public NetClient(){
 
         Net.handleClient(Connect.class, packet -> {
@@ -124,11 +140,16 @@ public class NetClient extends Module{
             //Platform.instance.updateRPC();
         });
 
-        Net.handleClient(WorldStream.class, data -> {
-            Log.info("Recieved world data: {0} bytes.", data.stream.available());
-            NetworkIO.loadWorld(new InflaterInputStream(data.stream));
+        Net.handleClientStream(WorldStream.class, builder -> {
+            //large worlds may take longer than the timeout, so it only counts time without progress
+            if(worldReader.read(builder) > 0){
+                timeoutTime = 0f;
+            }
 
-            finishConnecting();
+            if(worldReader.isDone()){
+                Log.info("Recieved world data: {0} bytes.", builder.size());
+                finishConnecting();
+            }
         });
 
         Net.handleClient(InvokePacket.class, packet -> {
@@ -188,6 +209,7 @@ public class NetClient extends Module{
     @Remote(variants = Variant.both)
     public static void onWorldDataBegin(){
         Entities.clear();
+        tileScheduler.clear();
         netClient.removed.clear();
 
         ui.chatfrag.clearMessages();
@@ -272,7 +294,7 @@ public class NetClient extends Module{
             //get data input for reading from the stream
             DataInputStream input = netClient.dataStream;
 
-            netClient.readSnapshot(input);
+            netClient.readSnapshot(input, snapshotID);
 
             //confirm that snapshot has been recieved
             netClient.lastSnapshotBaseID = snapshotID;
@@ -281,7 +303,12 @@ public class NetClient extends Module{
         }
     }
 
+    /**Reads a full snapshot that is not recorded as a delta baseline.*/
     public void readSnapshot(DataInputStream input) throws IOException{
+        readSnapshot(input, -1);
+    }
+
+    public void readSnapshot(DataInputStream input, int snapshotID) throws IOException{
 
         //read wave info
         state.wavetime = input.readFloat();
@@ -301,6 +328,19 @@ public class NetClient extends Module{
 
         long timestamp = input.readLong();
 
+        int baseID = input.readInt();
+        EntitySnapshot base = snapshots.get(baseID);
+
+        if(baseID != -1 && base == null){
+            //baseline is no longer known, request a full snapshot
+            lastAckedSnapshot = -1;
+            return;
+        }
+
+        EntitySnapshot next = nextSnapshot;
+        next.clear(snapshotID);
+        removedEntries.clear(-1);
+
         byte totalGroups = input.readByte();
         //for each group...
         for(int i = 0; i < totalGroups; i++){
@@ -308,34 +348,60 @@ public class NetClient extends Module{
             byte groupID = input.readByte();
             short amount = input.readShort();
 
-            EntityGroup group = Entities.getGroup(groupID);
-
-            //go through each entity
+            //read entities that changed since the baseline
             for(int j = 0; j < amount; j++){
-                int id = input.readInt();
-                byte typeID = input.readByte();
-
-                SyncTrait entity = (SyncTrait) group.getByID(id);
-                boolean add = false;
-
-                //entity must not be added yet, so create it
-                if(entity == null){
-                    entity = (SyncTrait) TypeTrait.getTypeByID(typeID).get(); //create entity from supplier
-                    entity.resetID(id);
-                    if(!netClient.isEntityUsed(entity.getID())){
-                        add = true;
-                    }
+                int id = BitReader.readVarInt(input);
+                int length = BitReader.readVarInt(input);
+                next.read(groupID, id, input, length);
+            }
+
+            //read entities that are no longer synced
+            short removed = input.readShort();
+            for(int j = 0; j < removed; j++){
+                removedEntries.add(groupID, BitReader.readVarInt(input), next.data(), 0, 0);
+            }
+        }
+
+        //carry over unchanged entities from the baseline
+        if(base != null){
+            for(int i = 0; i < base.size(); i++){
+                if(next.find(base.group(i), base.entity(i)) == -1 && removedEntries.find(base.group(i), base.entity(i)) == -1){
+                    next.add(base, i);
                 }
+            }
+        }
+
+        //read every entity, including unchanged ones, so that their interpolation settles on the latest state
+        for(int i = 0; i < next.size(); i++){
+            EntityGroup group = Entities.getGroup(next.group(i));
+            int id = next.entity(i);
+
+            entryStream.setBytes(next.data(), next.offset(i), next.length(i));
+            byte typeID = entryInput.readByte();
 
-                //read the entity
-                entity.read(input, timestamp);
+            SyncTrait entity = (SyncTrait) group.getByID(id);
+            boolean add = false;
 
-                if(add){
-                    entity.add();
-                    netClient.addRemovedEntity(entity.getID());
+            //entity must not be added yet, so create it
+            if(entity == null){
+                entity = (SyncTrait) TypeTrait.getTypeByID(typeID).get(); //create entity from supplier
+                entity.resetID(id);
+                if(!netClient.isEntityUsed(entity.getID())){
+                    add = true;
                 }
             }
+
+            //read the entity
+            entity.read(entryInput, timestamp);
+
+            if(add){
+                entity.add();
+                netClient.addRemovedEntity(entity.getID());
+            }
         }
+
+        nextSnapshot = snapshotID == -1 ? new EntitySnapshot() : snapshots.put(next);
+        if(snapshotID != -1) lastAckedSnapshot = snapshotID;
     }
 
     @Override
@@ -357,6 +423,10 @@ public class NetClient extends Module{
                 timeoutTime = 0f;
             }
         }
+
+        if(Net.client()){
+            Net.flushBatches();
+        }
     }
 
     public boolean isConnecting(){
@@ -383,8 +453,11 @@ public class NetClient extends Module{
         currentSnapshot = null;
         currentSnapshotID = -1;
         lastSnapshotBaseID = -1;
+        lastAckedSnapshot = -1;
+        snapshots.clear();
 
         Entities.clear();
+        tileScheduler.clear();
         ui.chatfrag.clearMessages();
     }
 
@@ -422,7 +495,7 @@ public class NetClient extends Module{
                 requests[i] = player.getPlaceQueue().get(i);
             }
 
-            Call.onClientShapshot(lastSent++, TimeUtils.millis(), player.x, player.y,
+            Call.onClientShapshot(lastSent++, lastAckedSnapshot, TimeUtils.millis(), player.x, player.y,
                 player.pointerX, player.pointerY, player.rotation, player.baseRotation,
                 player.getVelocity().x, player.getVelocity().y,
                 player.getMineTile(),
@@ -4,9 +4,7 @@ import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.Colors;
 import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
-import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.IntMap;
-import com.badlogic.gdx.utils.ObjectSet;
 import com.badlogic.gdx.utils.TimeUtils;
 import io.anuke.annotations.Annotations.Loc;
 import io.anuke.annotations.Annotations.Remote;
@@ -15,9 +13,9 @@ import mindustryV4.content.blocks.Blocks;
 import mindustryV4.core.GameState.State;
 import mindustryV4.entities.Player;
 import mindustryV4.entities.traits.BuilderTrait.BuildRequest;
-import mindustryV4.entities.traits.SyncTrait;
 import mindustryV4.game.EventType.WorldLoadEvent;
 import mindustryV4.game.Team;
+import mindustryV4.game.Teams.TeamData;
 import mindustryV4.game.Version;
 import mindustryV4.gen.Call;
 import mindustryV4.gen.RemoteReadServer;
@@ -27,29 +25,33 @@ import mindustryV4.net.Packets.*;
 import mindustryV4.world.Tile;
 import ucore.core.Events;
 import ucore.core.Timers;
-import ucore.entities.Entities;
-import ucore.entities.EntityGroup;
-import ucore.entities.EntityQuery;
-import ucore.entities.trait.Entity;
 import ucore.io.ByteBufferOutput;
-import ucore.io.CountableByteArrayOutputStream;
 import ucore.modules.Module;
 import ucore.util.Structs;
 import ucore.util.Log;
 import ucore.util.Mathf;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.zip.DeflaterOutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static mindustryV4.Vars.*;
 
 public class NetServer extends Module{
     public final static int maxSnapshotSize = 2047;
+    /**Amount of sent snapshots kept per connection as delta baselines.*/
+    public final static int snapshotHistory = 32;
 
     public final static boolean debugSnapshots = false;
     public final static float maxSnapshotDelay = 200;
@@ -59,7 +61,6 @@ public class NetServer extends Module{
     private final static float serverSyncTime = 4, kickDuration = 30 * 1000;
     private final static Vector2 vector = new Vector2();
     private final static Rectangle viewport = new Rectangle();
-    private final static Array<Entity> returnArray = new Array<>();
     /**If a player goes away of their server-side coordinates by this distance, they get teleported back.*/
     private final static float correctDist = 16f;
 
@@ -68,20 +69,35 @@ public class NetServer extends Module{
     /**Maps connection IDs to players.*/
     private IntMap<Player> connections = new IntMap<>();
     private boolean closing = false;
+    private final int syncStage = profiler.register("sync");
 
     private ByteBuffer writeBuffer = ByteBuffer.allocate(127);
     private ByteBufferOutput outputBuffer = new ByteBufferOutput(writeBuffer);
 
-    /**Stream for writing player sync data to.*/
-    private CountableByteArrayOutputStream syncStream = new CountableByteArrayOutputStream();
-    /**Data stream for writing player sync data to.*/
-    private DataOutputStream dataStream = new DataOutputStream(syncStream);
+    /**Threads that write and compress player snapshots.*/
+    private final ExecutorService snapshotExecutor = Executors.newFixedThreadPool(Math.max(Runtime.getRuntime().availableProcessors() - 1, 1), r -> {
+        Thread thread = new Thread(r, "Snapshot Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**Maps connection IDs to their snapshot writers.*/
+    private IntMap<SnapshotWriter> snapshotWriters = new IntMap<>();
+    /**Writers that finished a snapshot, which still needs to be sent.*/
+    private Queue<SnapshotWriter> writtenSnapshots = new ConcurrentLinkedQueue<>();
+    /**Captured frames that are no longer used by any writer.*/
+    private Queue<SyncFrame> framePool = new ConcurrentLinkedQueue<>();
+    /**Writer for snapshots that are written on the main thread.*/
+    private SnapshotWriter snapshotWriter = new SnapshotWriter();
+    /**Compressed world regions, shared by all players that join while they are valid.*/
+    private WorldImage worldImage = new WorldImage();
+    private long tick;
 
     public NetServer(){
         Events.on(WorldLoadEvent.class, event -> {
             if(!headless){
                 connections.clear();
             }
+            worldImage.clear();
         });
 
         Net.handleServer(Connect.class, (id, connect) -> {
@@ -263,15 +279,39 @@ public class NetServer extends Module{
         }
     }
 
+    /**Sends the world to a player, with the regions closest to their core first.*/
     public void sendWorldData(Player player, int clientID){
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        DeflaterOutputStream def = new DeflaterOutputStream(stream);
-        NetworkIO.writeWorld(player, def);
-        WorldStream data = new WorldStream();
-        data.stream = new ByteArrayInputStream(stream.toByteArray());
-        Net.sendStream(clientID, data);
-
-        Log.info("Packed {0} compressed bytes of world data.", stream.size());
+        WorldImage image = getWorldImage();
+        List<InputStream> records = new ArrayList<>();
+
+        byte[] header = NetworkIO.writeRecord(stream -> NetworkIO.writeWorldHeader(player, stream));
+        records.add(new ByteArrayInputStream(header));
+
+        TeamData team = state.teams.get(player.getTeam());
+        float x = team.cores.size > 0 ? team.cores.first().drawx() : world.width() * tilesize / 2f;
+        float y = team.cores.size > 0 ? team.cores.first().drawy() : world.height() * tilesize / 2f;
+        for(int region : image.order(x, y)){
+            records.add(new ByteArrayInputStream(image.region(region)));
+        }
+
+        byte[] end = NetworkIO.writeRecord(stream -> NetworkIO.writeWorldEnd(player, stream));
+        records.add(new ByteArrayInputStream(end));
+
+        WorldStream packet = new WorldStream();
+        packet.stream = new SequenceInputStream(Collections.enumeration(records));
+        packet.total = header.length + image.size() + end.length;
+        Net.sendStream(clientID, packet);
+
+        Log.info("Packed {0} compressed bytes of world data.", packet.total);
+    }
+
+    /**@return compressed regions of the current world. Only regions that changed since they were last sent are compressed again.*/
+    public WorldImage getWorldImage(){
+        int compressed = worldImage.update(tick);
+        if(compressed > 0){
+            Log.info("Compressed {0}/{1} world regions.", compressed, worldImage.regions());
+        }
+        return worldImage;
     }
 
     public static void onDisconnect(Player player){
@@ -281,6 +321,7 @@ public class NetServer extends Module{
         }
         player.remove();
         netServer.connections.remove(player.con.id);
+        netServer.snapshotWriters.remove(player.con.id);
     }
 
     private static float compound(float speed, float drag){
@@ -295,7 +336,7 @@ public class NetServer extends Module{
     @Remote(targets = Loc.client, unreliable = true)
     public static void onClientShapshot(
         Player player,
-        int snapshotID, long sent,
+        int snapshotID, int lastSnapshot, long sent,
         float x, float y,
         float pointerX, float pointerY,
         float rotation, float baseRotation,
@@ -312,6 +353,7 @@ public class NetServer extends Module{
 
         if(connection.lastRecievedClientTime == 0) connection.lastRecievedClientTime = TimeUtils.millis() - 16;
 
+        connection.lastAckedSnapshot = lastSnapshot;
         connection.viewX = viewX;
         connection.viewY = viewY;
         connection.viewWidth = viewWidth;
@@ -432,6 +474,7 @@ public class NetServer extends Module{
     }
 
     public void update(){
+        tick++;
 
         if(!headless && !closing && Net.server() && state.is(State.menu)){
             closing = true;
@@ -444,7 +487,13 @@ public class NetServer extends Module{
         }
 
         if(!state.is(State.menu) && Net.server()){
+            profiler.begin(syncStage);
             sync();
+            profiler.end(syncStage);
+        }
+
+        if(Net.server()){
+            Net.flushBatches();
         }
     }
 
@@ -478,73 +527,19 @@ public class NetServer extends Module{
         admins.save();
     }
 
+    /**Writes a full snapshot of the current state that is not recorded as a delta baseline.*/
     public void writeSnapshot(Player player, DataOutputStream dataStream) throws IOException{
-        viewport.setSize(player.con.viewWidth, player.con.viewHeight).setCenter(player.con.viewX, player.con.viewY);
-
-        //write wave datas
-        dataStream.writeFloat(state.wavetime);
-        dataStream.writeInt(state.wave);
-        dataStream.writeInt(state.enemies());
-
-        ObjectSet<Tile> cores = state.teams.get(player.getTeam()).cores;
-
-        dataStream.writeByte(cores.size);
-
-        //write all core inventory data
-        for(Tile tile : cores){
-            dataStream.writeInt(tile.packedPosition());
-            tile.entity.items.write(dataStream);
-        }
-
-        //write timestamp
-        dataStream.writeLong(TimeUtils.millis());
-
-        int totalGroups = 0;
-
-        for(EntityGroup<?> group : Entities.getAllGroups()){
-            if(!group.isEmpty() && (group.all().get(0) instanceof SyncTrait)) totalGroups++;
-        }
-
-        //write total amount of serializable groups
-        dataStream.writeByte(totalGroups);
-
-        //check for syncable groups
-        for(EntityGroup<?> group : Entities.getAllGroups()){
-            if(group.isEmpty() || !(group.all().get(0) instanceof SyncTrait)) continue;
-            //clipping is done by representatives
-            SyncTrait represent = (SyncTrait) group.all().get(0);
-
-            //make sure mapping is enabled for this group
-            if(!group.mappingEnabled()){
-                throw new RuntimeException("Entity group '" + group.getType() + "' contains SyncTrait entities, yet mapping is not enabled. In order for syncing to work, you must enable mapping for this group.");
-            }
-
-            returnArray.clear();
-            if(represent.isClipped()){
-                EntityQuery.getNearby(group, viewport, entity -> {
-                    if(((SyncTrait) entity).isSyncing() && viewport.contains(entity.getX(), entity.getY())){
-                        returnArray.add(entity);
-                    }
-                });
-            }else{
-                for(Entity entity : group.all()){
-                    if(((SyncTrait) entity).isSyncing()){
-                        returnArray.add(entity);
-                    }
-                }
-            }
-
-            //write group ID + group size
-            dataStream.writeByte(group.getID());
-            dataStream.writeShort(returnArray.size);
+        writeSnapshot(player, dataStream, null, new EntitySnapshot());
+    }
 
-            for(Entity entity : returnArray){
-                //write all entities now
-                dataStream.writeInt(entity.getID()); //write id
-                dataStream.writeByte(((SyncTrait) entity).getTypeID()); //write type ID
-                ((SyncTrait) entity).write(dataStream); //write entity
-            }
-        }
+    /**Writes a snapshot of the current state for a player. Main thread only.
+     * @param base the entity state the client has acknowledged, or null to write every entity.
+     * @param current the state to record the written entities in; must be cleared beforehand.*/
+    public void writeSnapshot(Player player, DataOutputStream dataStream, EntitySnapshot base, EntitySnapshot current) throws IOException{
+        SyncFrame frame = new SyncFrame(null);
+        frame.capture();
+        viewport.setSize(player.con.viewWidth, player.con.viewHeight).setCenter(player.con.viewX, player.con.viewY);
+        snapshotWriter.write(frame, player.getTeam(), viewport, dataStream, base, current);
     }
 
     String fixName(String name){
@@ -600,6 +595,20 @@ public class NetServer extends Module{
     void sync(){
 
         try{
+            //send snapshots that finished writing since the last update
+            SnapshotWriter written;
+            while((written = writtenSnapshots.poll()) != null){
+                written.pending = false;
+
+                if(written.error != null){
+                    Log.err(written.error);
+                }else if(connections.containsKey(written.connectionID)){
+                    if(debugSnapshots) Log.info("Sent snapshot: {0} bytes.", written.bytes.length);
+                    sendSplitSnapshot(written.connectionID, written.bytes, written.snapshotID, written.uncompressedLength);
+                }
+            }
+
+            SyncFrame frame = null;
 
             //iterate through each player
             for(int i = 0; i < playerGroup.size(); i ++){
@@ -614,23 +623,28 @@ public class NetServer extends Module{
                     return;
                 }
 
-                if(!player.timer.get(Player.timerSync, serverSyncTime) || !connection.hasConnected) continue;
-
-                //reset stream to begin writing
-                Timers.mark();
-                syncStream.reset();
+                SnapshotWriter writer = snapshotWriters.get(connection.id);
+                if(writer == null){
+                    snapshotWriters.put(connection.id, writer = new SnapshotWriter());
+                }
 
-                writeSnapshot(player, dataStream);
+                //wait for the previous snapshot of this player to finish writing
+                if(writer.pending || !player.timer.get(Player.timerSync, serverSyncTime) || !connection.hasConnected) continue;
 
-                dataStream.close();
+                //capture entity state once for every player that needs a snapshot this update
+                if(frame == null){
+                    frame = framePool.poll();
+                    if(frame == null) frame = new SyncFrame(framePool);
+                    frame.capture();
+                }
 
-                byte[] bytes = syncStream.toByteArray();
-                int uncompressed = bytes.length;
-                bytes = Net.compressSnapshot(bytes);
-                int snapid = connection.lastSentSnapshotID ++;
+                frame.retain();
+                writer.begin(connection, player.getTeam(), frame, writtenSnapshots);
+                snapshotExecutor.execute(writer);
+            }
 
-                if(debugSnapshots) Log.info("Sent snapshot: {0} bytes.", bytes.length);
-                sendSplitSnapshot(connection.id, bytes, snapid, uncompressed);
+            if(frame != null){
+                frame.release();
             }
 
         }catch(IOException e){
@@ -0,0 +1,94 @@
+package mindustryV4.core;
+
+import com.badlogic.gdx.utils.Array;
+
+import java.util.Arrays;
+
+/**
+ * Always-on timing of the stages of a game tick, such as entity group updates or collisions.
+ * Stage times are summed per tick and kept over a rolling window of recent ticks. Main thread only.
+ */
+public class TickProfiler{
+    /**Amount of ticks that statistics are kept for.*/
+    public static final int window = 60 * 10;
+
+    private final Array<String> names = new Array<>();
+    /**Total time of every stage in each tick of the window, in nanoseconds.*/
+    private long[][] samples = {};
+    private long[] current = {}, starts = {};
+    private long[] sorted = new long[window];
+    private int position, filled;
+
+    /**Adds a stage. Stages with the same name are shared.
+     * @return the ID of the stage.*/
+    public int register(String name){
+        int index = names.indexOf(name, false);
+        if(index != -1) return index;
+
+        names.add(name);
+        samples = Arrays.copyOf(samples, names.size);
+        samples[names.size - 1] = new long[window];
+        current = Arrays.copyOf(current, names.size);
+        starts = Arrays.copyOf(starts, names.size);
+        return names.size - 1;
+    }
+
+    public void begin(int stage){
+        starts[stage] = System.nanoTime();
+    }
+
+    /**Adds the time since {@link #begin(int)} to the stage. May be called multiple times per tick.*/
+    public void end(int stage){
+        current[stage] += System.nanoTime() - starts[stage];
+    }
+
+    /**Stores the stage times of the current tick and starts the next one.*/
+    public void endTick(){
+        for(int i = 0; i < current.length; i++){
+            samples[i][position] = current[i];
+            current[i] = 0;
+        }
+
+        position = (position + 1) % window;
+        filled = Math.min(filled + 1, window);
+    }
+
+    public void reset(){
+        for(long[] stage : samples){
+            Arrays.fill(stage, 0);
+        }
+        Arrays.fill(current, 0);
+        position = filled = 0;
+    }
+
+    public int stages(){
+        return names.size;
+    }
+
+    public String name(int stage){
+        return names.get(stage);
+    }
+
+    /**@return amount of ticks that statistics are available for.*/
+    public int ticks(){
+        return filled;
+    }
+
+    /**@return the time of a stage that the specified fraction of recent ticks stayed below, in nanoseconds.*/
+    public long percentile(int stage, float fraction){
+        if(filled == 0) return 0;
+
+        System.arraycopy(samples[stage], 0, sorted, 0, filled);
+        Arrays.sort(sorted, 0, filled);
+        return sorted[Math.min((int)(fraction * filled), filled - 1)];
+    }
+
+    /**@return the longest time of a stage in recent ticks, in nanoseconds.*/
+    public long max(int stage){
+        long max = 0;
+        for(int i = 0; i < filled; i++){
+            max = Math.max(max, samples[stage][i]);
+        }
+        return max;
+    }
+}
@@ -4,6 +4,7 @@ import com.badlogic.gdx.math.GridPoint2;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.ObjectMap;
 import mindustryV4.ai.BlockIndexer;
+import mindustryV4.ai.HierarchicalPathfinder;
 import mindustryV4.ai.Pathfinder;
 import mindustryV4.ai.WaveSpawner;
 import mindustryV4.content.blocks.Blocks;
@@ -23,15 +24,21 @@ import ucore.entities.EntityQuery;
 import ucore.modules.Module;
 import ucore.util.*;
 
+import java.util.Arrays;
+
 import static mindustryV4.Vars.*;
 
 public class World extends Module{
+    /**Size of the square chunks that changes to the world are tracked in, in tiles.*/
+    public static final int chunkSize = 32;
+
     public final Maps maps = new Maps();
     public final Sectors sectors = new Sectors();
     public final WorldGenerator generator = new WorldGenerator();
     public final BlockIndexer indexer = new BlockIndexer();
     public final WaveSpawner spawner = new WaveSpawner();
     public final Pathfinder pathfinder = new Pathfinder();
+    public final HierarchicalPathfinder routes = new HierarchicalPathfinder();
 
     private Map currentMap;
     private Sector currentSector;
@@ -39,6 +46,9 @@ public class World extends Module{
 
     private Array<Tile> tempTiles = new ThreadArray<>();
     private boolean generating, invalidMap;
+    /**Version of every chunk, which is set to a new value whenever a tile or tile entity in it changes. Main thread only.*/
+    private int[] chunkVersions = {};
+    private int lastVersion;
 
     public World(){
         maps.load();
@@ -133,6 +143,46 @@ public class World extends Module{
         return tiles;
     }
 
+    public int chunksWidth(){
+        return (width() + chunkSize - 1) / chunkSize;
+    }
+
+    public int chunksHeight(){
+        return (height() + chunkSize - 1) / chunkSize;
+    }
+
+    public int chunks(){
+        return chunksWidth() * chunksHeight();
+    }
+
+    /**@return the version of a chunk. Versions only change when something in the chunk changes, and are never reused.*/
+    public int chunkVersion(int chunk){
+        return chunk < chunkVersions.length ? chunkVersions[chunk] : 0;
+    }
+
+    /**@return whether a chunk contains entities that are awake, and may change their state every tick without changing the chunk version.*/
+    public boolean hasAwakeEntities(int chunk){
+        int offsetx = chunk % chunksWidth() * chunkSize, offsety = chunk / chunksWidth() * chunkSize;
+        int maxx = Math.min(offsetx + chunkSize, width()), maxy = Math.min(offsety + chunkSize, height());
+
+        for(int x = offsetx; x < maxx; x++){
+            for(int y = offsety; y < maxy; y++){
+                if(tiles[x][y].entity != null && tiles[x][y].entity.isAwake()){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**Gives the chunk of a tile a new version. Called whenever a tile or the state of a sleeping tile entity changes.*/
+    public void markChanged(Tile tile){
+        int chunk = tile.x / chunkSize + tile.y / chunkSize * chunksWidth();
+        if(chunk < chunkVersions.length){
+            chunkVersions[chunk] = ++lastVersion;
+        }
+    }
+
     private void clearTileEntities(){
         for(int x = 0; x < tiles.length; x++){
             for(int y = 0; y < tiles[0].length; y++){
@@ -197,6 +247,11 @@ public class World extends Module{
 
         EntityQuery.resizeTree(0, 0, tiles.length * tilesize, tiles[0].length * tilesize);
 
+        if(chunkVersions.length != chunks()){
+            chunkVersions = new int[chunks()];
+        }
+        Arrays.fill(chunkVersions, ++lastVersion);
+
         generating = false;
         Events.fire(new WorldLoadEvent());
     }
@@ -283,6 +338,8 @@ public class World extends Module{
     }
 
     public void notifyChanged(Tile tile){
+        markChanged(tile);
+
         if(!generating){
             threads.runDelay(() -> Events.fire(new TileChangeEvent(tile)));
         }
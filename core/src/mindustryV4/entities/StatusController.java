@@ -80,6 +80,10 @@ public class StatusController implements Saveable{
         statuses.clear();
     }
 
+    public boolean isEmpty(){
+        return statuses.size == 0;
+    }
+
     public void update(Unit unit){
         speedMultiplier = damageMultiplier = armorMultiplier = 1f;
 
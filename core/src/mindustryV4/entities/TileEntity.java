@@ -33,13 +33,12 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import static mindustryV4.Vars.tileGroup;
+import static mindustryV4.Vars.tileScheduler;
 import static mindustryV4.Vars.world;
 
 public class TileEntity extends BaseEntity implements TargetTrait, HealthTrait{
     public static final float timeToSleep = 60f * 4; //4 seconds to fall asleep
     private static final ObjectSet<Tile> tmpTiles = new ObjectSet<>();
-    /**This value is only used for debugging.*/
-    public static int sleepingEntities = 0;
 
     public Tile tile;
     public Timer timer;
@@ -56,11 +55,14 @@ public class TileEntity extends BaseEntity implements TargetTrait, HealthTrait{
     private boolean dead = false;
     private boolean sleeping;
     private float sleepTime;
+    /**Scheduler state: whether this entity is updated, and whether it is in the update list.*/
+    boolean awake, listed;
 
     @Remote(called = Loc.server)
     public static void onTileDamage(Tile tile, float health){
         if(tile.entity != null){
             tile.entity.health = health;
+            world.markChanged(tile);
         }
     }
 
@@ -96,19 +98,22 @@ public class TileEntity extends BaseEntity implements TargetTrait, HealthTrait{
     public void sleep(){
         sleepTime += Timers.delta();
         if(!sleeping && sleepTime >= timeToSleep){
-            remove();
+            tileScheduler.sleep(this);
+            tileScheduler.sleepingChanged(1);
             sleeping = true;
-            sleepingEntities++;
         }
     }
 
-    /**Call when this entity is updating. This wakes it up.*/
+    /**Call when this entity is updating, or its items or liquids change. This wakes it up.
+     * Entities that are never updated change the version of their chunk instead, as nothing else would.*/
     public void noSleep(){
         sleepTime = 0f;
         if(sleeping){
-            add();
+            tileScheduler.wake(this);
+            tileScheduler.sleepingChanged(-1);
             sleeping = false;
-            sleepingEntities--;
+        }else if(!awake){
+            world.markChanged(tile);
         }
     }
 
@@ -116,6 +121,11 @@ public class TileEntity extends BaseEntity implements TargetTrait, HealthTrait{
         return sleeping;
     }
 
+    /**@return whether this entity is updated every tick, which means that its state may change at any time.*/
+    public boolean isAwake(){
+        return awake;
+    }
+
     public boolean isDead(){
         return dead || tile.entity != this;
     }
@@ -247,6 +257,22 @@ public class TileEntity extends BaseEntity implements TargetTrait, HealthTrait{
         }
     }
 
+    @Override
+    public void added(){
+        sleepTime = 0f;
+        sleeping = false;
+        tileScheduler.wake(this);
+    }
+
+    @Override
+    public void removed(){
+        if(sleeping){
+            tileScheduler.sleepingChanged(-1);
+            sleeping = false;
+        }
+        tileScheduler.sleep(this);
+    }
+
     @Override
     public Team getTeam(){
         return tile.getTeam();
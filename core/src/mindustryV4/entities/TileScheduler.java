@@ -0,0 +1,394 @@
+package mindustryV4.entities;
+
+import com.badlogic.gdx.math.GridPoint2;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import mindustryV4.world.Block;
+import mindustryV4.world.Edges;
+import mindustryV4.world.Tile;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static mindustryV4.Vars.tileGroup;
+import static mindustryV4.Vars.world;
+
+/**
+ * Updates the tile entities that are awake.
+ * Sleeping entities stay in the tile group, but are taken out of the update list until something wakes them up,
+ * so idle blocks cost nothing per tick.
+ * <p>
+ * In partitioned mode, the map is split into square regions, which are coloured like a checkerboard with four colours.
+ * Regions of the same colour never touch, so the entities of {@link Block#concurrentUpdate} blocks in them are updated
+ * concurrently, one colour at a time. Changes to the update list made during that are recorded per region and merged
+ * afterwards in region order, so the result does not depend on the amount of threads.
+ * <p>
+ * The partitioned update order differs from the serial one: concurrent entities are updated first, grouped by region
+ * colour, and all other entities after them. Where an item is handed between entities within a tick can therefore differ,
+ * so the same game does not play out exactly the same with partitioned updates enabled as without.
+ */
+public class TileScheduler{
+    /**Size of the regions used in partitioned mode, in tiles.*/
+    public static final int regionSize = 16;
+
+    /**Entities in update order. May contain entities that fell asleep, until the next compaction.*/
+    private Array<TileEntity> active = new Array<>(false, 1024, TileEntity.class);
+    private int sleeping, updated;
+    /**Whether any listed entity fell asleep or was removed since the last compaction.*/
+    private boolean dirty;
+
+    /**Amount of threads used in partitioned mode, or 0 if it is disabled.*/
+    private int threads;
+    private ExecutorService executor;
+    private Region[] regions = {};
+    private int regionsWidth;
+    /**Indices of the regions of every colour.*/
+    private final IntArray[] colors = {new IntArray(), new IntArray(), new IntArray(), new IntArray()};
+    /**Region of every partitioned entity, by position in the update list.*/
+    private int[] entityRegions = {};
+    /**Entities that are updated on this thread after the regions, in update order.*/
+    private final Array<TileEntity> serial = new Array<>(false, 64, TileEntity.class);
+    /**Region that is being updated on each thread, if any.*/
+    private final ThreadLocal<Region> current = new ThreadLocal<>();
+
+    private final AtomicInteger nextRegion = new AtomicInteger();
+    private IntArray phase;
+    private CountDownLatch finished;
+    private volatile Throwable error;
+    private final Runnable worker = () -> {
+        try{
+            updateRegions();
+        }catch(Throwable t){
+            error = t;
+        }finally{
+            finished.countDown();
+        }
+    };
+
+    /**Processes pending tile group changes and updates every awake entity once.*/
+    public void update(){
+        tileGroup.updateEvents();
+
+        //entities woken up during the update are appended, and updated from the next tick on
+        int size = active.size;
+        TileEntity[] items = active.items;
+        updated = 0;
+
+        if(threads > 0){
+            updatePartitioned(size);
+        }else{
+            for(int i = 0; i < size; i++){
+                TileEntity entity = items[i];
+                if(entity.awake){
+                    entity.update();
+                    updated++;
+                }
+            }
+        }
+
+        if(dirty){
+            compact();
+        }
+    }
+
+    /**Enables partitioned updates with the specified amount of threads, or disables them if it is 0.
+     * With one thread, entities are updated in partitioned order on the calling thread.
+     * Any amount above 0 gives the same results, which may differ from those of serial updates; see the class description.*/
+    public void setThreads(int threads){
+        threads = Math.max(threads, 0);
+        if(this.threads == threads) return;
+
+        if(executor != null){
+            executor.shutdown();
+            executor = null;
+        }
+
+        this.threads = threads;
+
+        if(threads > 1){
+            //the updating thread takes part, so one thread less is needed
+            executor = Executors.newFixedThreadPool(threads - 1, r -> {
+                Thread thread = new Thread(r, "Tile Updater");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public int getThreads(){
+        return threads;
+    }
+
+    /**Adds an entity to the update list. Called when an entity is added or woken up.
+     * Entities that were not in the list change the version of their chunk, as their state may change from now on.*/
+    void wake(TileEntity entity){
+        if(entity.awake) return;
+
+        entity.awake = true;
+        if(!entity.listed){
+            Region region = current.get();
+            if(region != null){
+                region.woken.add(entity);
+            }else{
+                entity.listed = true;
+                active.add(entity);
+                world.markChanged(entity.tile);
+            }
+        }
+    }
+
+    /**Takes an entity out of the update list. Called when an entity is removed or falls asleep.*/
+    void sleep(TileEntity entity){
+        if(!entity.awake) return;
+
+        entity.awake = false;
+        Region region = current.get();
+        if(region != null){
+            region.dirty = true;
+        }else{
+            dirty = true;
+        }
+    }
+
+    void sleepingChanged(int amount){
+        Region region = current.get();
+        if(region != null){
+            region.sleeping += amount;
+        }else{
+            sleeping += amount;
+        }
+    }
+
+    /**@return amount of entities updated in the last tick.*/
+    public int activeCount(){
+        return updated;
+    }
+
+    /**@return amount of entities that are currently asleep.*/
+    public int sleepingCount(){
+        return sleeping;
+    }
+
+    /**Clears all state. Call when all entities are cleared.*/
+    public void clear(){
+        for(int i = 0; i < active.size; i++){
+            active.items[i].listed = false;
+            active.items[i].awake = false;
+        }
+        active.clear();
+        serial.clear();
+        sleeping = 0;
+        updated = 0;
+        dirty = false;
+    }
+
+    private void updatePartitioned(int size){
+        TileEntity[] items = active.items;
+        createRegions();
+
+        if(entityRegions.length < size){
+            entityRegions = new int[Math.max(size, entityRegions.length * 2)];
+        }
+
+        serial.clear();
+
+        //count the entities of every region; the others are updated afterwards, on this thread
+        for(int i = 0; i < size; i++){
+            TileEntity entity = items[i];
+            entityRegions[i] = -1;
+            if(!entity.awake) continue;
+
+            if(isConcurrent(entity)){
+                int region = entity.tile.x / regionSize + entity.tile.y / regionSize * regionsWidth;
+                entityRegions[i] = region;
+                regions[region].size++;
+            }else{
+                serial.add(entity);
+            }
+        }
+
+        //place entities in their regions, keeping their update order
+        for(Region region : regions){
+            region.ensureCapacity();
+            region.size = 0;
+        }
+
+        for(int i = 0; i < size; i++){
+            if(entityRegions[i] != -1){
+                Region region = regions[entityRegions[i]];
+                region.entities[region.size++] = items[i];
+            }
+        }
+
+        for(IntArray color : colors){
+            runPhase(color);
+        }
+
+        //merge list changes in region order
+        for(Region region : regions){
+            for(int i = 0; i < region.woken.size; i++){
+                TileEntity entity = region.woken.get(i);
+                if(entity.awake && !entity.listed){
+                    entity.listed = true;
+                    active.add(entity);
+                    world.markChanged(entity.tile);
+                }
+            }
+
+            dirty |= region.dirty;
+            sleeping += region.sleeping;
+            updated += region.updated;
+            region.reset();
+        }
+
+        for(int i = 0; i < serial.size; i++){
+            TileEntity entity = serial.get(i);
+            if(entity.awake){
+                entity.update();
+                updated++;
+            }
+        }
+
+        serial.clear();
+    }
+
+    /**Updates all regions of one colour, and waits until they are done.*/
+    private void runPhase(IntArray color){
+        phase = color;
+        nextRegion.set(0);
+
+        int workers = executor == null ? 0 : Math.min(threads - 1, color.size - 1);
+
+        if(workers > 0){
+            finished = new CountDownLatch(workers);
+            for(int i = 0; i < workers; i++){
+                executor.execute(worker);
+            }
+        }
+
+        updateRegions();
+
+        if(workers > 0){
+            try{
+                finished.await();
+            }catch(InterruptedException e){
+                throw new RuntimeException(e);
+            }
+
+            if(error != null){
+                Throwable t = error;
+                error = null;
+                throw new RuntimeException(t);
+            }
+        }
+    }
+
+    /**Takes and updates regions of the current phase until none are left. Called on every participating thread.*/
+    private void updateRegions(){
+        IntArray phase = this.phase;
+        int index;
+
+        try{
+            while((index = nextRegion.getAndIncrement()) < phase.size){
+                Region region = regions[phase.get(index)];
+                current.set(region);
+
+                for(int i = 0; i < region.size; i++){
+                    TileEntity entity = region.entities[i];
+                    if(entity.awake){
+                        entity.update();
+                        region.updated++;
+                    }
+                }
+            }
+        }finally{
+            current.remove();
+        }
+    }
+
+    /**@return whether this entity only touches tiles that are safe to update concurrently.*/
+    private boolean isConcurrent(TileEntity entity){
+        Tile tile = entity.tile;
+        Block block = tile.block();
+
+        //damaged entities may create effects or be destroyed
+        if(!block.concurrentUpdate || entity.health < block.health) return false;
+
+        for(GridPoint2 point : Edges.getEdges(block.size)){
+            Tile other = world.tile(tile.x + point.x, tile.y + point.y);
+            if(other == null) continue;
+            other = other.target();
+
+            if(other.entity != null && !other.block().concurrentUpdate){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**Creates regions and colours for the current map size, if it changed.*/
+    private void createRegions(){
+        int width = (world.width() + regionSize - 1) / regionSize, height = (world.height() + regionSize - 1) / regionSize;
+        if(width == regionsWidth && width * height == regions.length) return;
+
+        regionsWidth = width;
+        regions = new Region[width * height];
+        for(IntArray color : colors){
+            color.clear();
+        }
+
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                regions[x + y * width] = new Region();
+                colors[(x % 2) + (y % 2) * 2].add(x + y * width);
+            }
+        }
+    }
+
+    /**Removes entities that are no longer awake, keeping the update order of the rest.*/
+    private void compact(){
+        TileEntity[] items = active.items;
+        int size = 0;
+
+        for(int i = 0; i < active.size; i++){
+            TileEntity entity = items[i];
+            if(entity.awake){
+                items[size++] = entity;
+            }else{
+                entity.listed = false;
+            }
+        }
+
+        for(int i = size; i < active.size; i++){
+            items[i] = null;
+        }
+
+        active.size = size;
+        dirty = false;
+    }
+
+    /**Entities of one region, and the list changes made while updating them.*/
+    private static class Region{
+        TileEntity[] entities = {};
+        int size, updated, sleeping;
+        boolean dirty;
+        final Array<TileEntity> woken = new Array<>(false, 16, TileEntity.class);
+
+        void ensureCapacity(){
+            if(entities.length < size){
+                entities = new TileEntity[Math.max(size, entities.length * 2)];
+            }
+        }
+
+        void reset(){
+            Arrays.fill(entities, 0, size, null);
+            woken.clear();
+            size = updated = sleeping = 0;
+            dirty = false;
+        }
+    }
+}
@@ -8,6 +8,8 @@ import mindustryV4.content.blocks.Blocks;
 import mindustryV4.entities.traits.*;
 import mindustryV4.game.Team;
 import mindustryV4.game.Teams.TeamData;
+import mindustryV4.net.BitReader;
+import mindustryV4.net.BitWriter;
 import mindustryV4.net.Interpolator;
 import mindustryV4.net.Net;
 import mindustryV4.type.StatusEffect;
@@ -39,6 +41,11 @@ public abstract class Unit extends DestructibleEntity implements SaveTrait, Targ
     public static final float velocityPrecision = 8f;
     /**Maximum absolute value of a velocity vector component.*/
     public static final float maxAbsVelocity = 127f / velocityPrecision;
+    /**Bits used for each synced position coordinate, in eighths of a world unit.*/
+    private static final int positionBits = 20, positionPrecision = 8;
+    private static final int maxPosition = (1 << (positionBits - 1)) - 1;
+    private static final BitWriter syncWriter = new BitWriter();
+    private static final BitReader syncReader = new BitReader();
 
     private static final Rectangle queryRect = new Rectangle();
     private static final Vector2 moveVector = new Vector2();
@@ -174,6 +181,56 @@ public abstract class Unit extends DestructibleEntity implements SaveTrait, Targ
         inventory.writeSave(stream);
     }
 
+    /**
+     * Writes the state of this unit that is synced to clients, packed into bits.
+     * Positions are kept to an eighth of a world unit, rotation to about a third of a degree and health to a thousandth
+     * of the maximum. Status effects and items are only written when there are any. Main thread only.
+     * @param interpolated whether to write the interpolation target instead of the current position.
+     */
+    public void writeSync(DataOutput stream, boolean interpolated) throws IOException{
+        BitWriter bits = syncWriter.begin(stream);
+        bits.write(team.ordinal(), 3);
+        bits.writeBoolean(isDead());
+        bits.write(Mathf.clamp((int)((interpolated ? interpolator.target.x : x) * positionPrecision), -maxPosition, maxPosition), positionBits);
+        bits.write(Mathf.clamp((int)((interpolated ? interpolator.target.y : y) * positionPrecision), -maxPosition, maxPosition), positionBits);
+        bits.write((byte) (Mathf.clamp(velocity.x, -maxAbsVelocity, maxAbsVelocity) * velocityPrecision), 8);
+        bits.write((byte) (Mathf.clamp(velocity.y, -maxAbsVelocity, maxAbsVelocity) * velocityPrecision), 8);
+        bits.write(Math.round(Mathf.mod(rotation, 360f) / 360f * 1024) & 1023, 10);
+        bits.writeFraction(health / maxHealth(), 10);
+        bits.writeBoolean(!status.isEmpty());
+        bits.writeBoolean(!inventory.isEmpty());
+        bits.end();
+
+        if(!status.isEmpty()) status.writeSave(stream);
+        if(!inventory.isEmpty()) inventory.writeSave(stream);
+    }
+
+    /**Reads state written by {@link #writeSync(DataOutput, boolean)}. Requires {@link #maxHealth()} to be known.*/
+    public void readSync(DataInput stream) throws IOException{
+        BitReader bits = syncReader.begin(stream);
+        team = Team.all[bits.read(3)];
+        dead = bits.readBoolean();
+        x = bits.readSigned(positionBits) / (float) positionPrecision;
+        y = bits.readSigned(positionBits) / (float) positionPrecision;
+        velocity.set((byte) bits.read(8) / velocityPrecision, (byte) bits.read(8) / velocityPrecision);
+        rotation = bits.read(10) / 1024f * 360f;
+        health = bits.readFraction(10) * maxHealth();
+        boolean hasStatus = bits.readBoolean(), hasItems = bits.readBoolean();
+        bits.end();
+
+        if(hasStatus){
+            status.readSave(stream);
+        }else{
+            status.clear();
+        }
+
+        if(hasItems){
+            inventory.readSave(stream);
+        }else{
+            inventory.clear();
+        }
+    }
+
     public float calculateDamage(float amount){
         return amount * Mathf.clamp(1f - getArmor() / 100f * status.getArmorMultiplier());
     }
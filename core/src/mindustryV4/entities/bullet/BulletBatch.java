@@ -0,0 +1,299 @@
+package mindustryV4.entities.bullet;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import mindustryV4.entities.Unit;
+import mindustryV4.game.Team;
+import ucore.entities.EntityGroup;
+import ucore.util.Mathf;
+
+import java.util.Arrays;
+
+import static mindustryV4.Vars.*;
+
+/**
+ * Collides every bullet with every unit and player in a single pass.
+ * The collision state of bullets and units is copied into primitive arrays once per tick, so that
+ * the broadphase and the swept hit test only read packed floats; bullet and unit callbacks are only called on hits.
+ * <p>
+ * Units are sorted into a uniform grid, which also stores the teams present in each cell.
+ * Cells without enemies of a bullet are skipped entirely, and allied units never reach the hit test.
+ * Must be called after bullets have moved, on the main thread.
+ */
+public class BulletBatch{
+    /**Size of the grid cells, in world units.*/
+    public static final int cellSize = 4 * tilesize;
+
+    private static final Rectangle rect = new Rectangle();
+
+    /**Bit mask of the enemy teams of every team.*/
+    private final int[] enemies = new int[Team.all.length];
+
+    private Bullet[] bullets = new Bullet[256];
+    /**Position at the start and end of the tick, and half size of every bullet.*/
+    private float[] bulletLastX = new float[256], bulletLastY = new float[256], bulletX = new float[256], bulletY = new float[256],
+        bulletWidth = new float[256], bulletHeight = new float[256];
+    private byte[] bulletTeams = new byte[256];
+    private int bulletCount;
+
+    private Unit[] units = new Unit[256];
+    private float[] unitMinX = new float[256], unitMinY = new float[256], unitMaxX = new float[256], unitMaxY = new float[256];
+    private byte[] unitTeams = new byte[256];
+    /**Last bullet that every unit was tested against, plus one, so units spanning several cells are tested once.*/
+    private int[] unitTested = new int[256];
+    private int unitCount;
+
+    private int gridWidth, gridHeight;
+    /**Index of the first entry of every cell in {@link #cellUnits}, followed by the total amount of entries.*/
+    private int[] cellStarts = {0};
+    /**Bit mask of the teams of the units in every cell.*/
+    private int[] cellTeams = {};
+    private int[] cellUnits = new int[256];
+
+    public void collide(){
+        if(bulletGroup.isEmpty()) return;
+
+        gatherUnits();
+        if(unitCount == 0) return;
+
+        gatherBullets();
+        if(bulletCount == 0) return;
+
+        for(Team team : Team.all){
+            int mask = 0;
+            for(Team other : Team.all){
+                if(state.teams.areEnemies(team, other)){
+                    mask |= 1 << other.ordinal();
+                }
+            }
+            enemies[team.ordinal()] = mask;
+        }
+
+        createGrid();
+        Arrays.fill(unitTested, 0, unitCount, 0);
+
+        for(int i = 0; i < bulletCount; i++){
+            collide(i);
+        }
+
+        Arrays.fill(bullets, 0, bulletCount, null);
+        Arrays.fill(units, 0, unitCount, null);
+    }
+
+    /**@return amount of bullets that were checked in the last pass.*/
+    public int bulletCount(){
+        return bulletCount;
+    }
+
+    /**@return amount of units that were checked in the last pass.*/
+    public int unitCount(){
+        return unitCount;
+    }
+
+    private void collide(int index){
+        int mask = enemies[bulletTeams[index]];
+        if(mask == 0) return;
+
+        float lastX = bulletLastX[index], lastY = bulletLastY[index], x = bulletX[index], y = bulletY[index];
+        float width = bulletWidth[index], height = bulletHeight[index];
+        float minX = Math.min(lastX, x) - width, maxX = Math.max(lastX, x) + width;
+        float minY = Math.min(lastY, y) - height, maxY = Math.max(lastY, y) + height;
+        int minCellX = cellX(minX), maxCellX = cellX(maxX), maxCellY = cellY(maxY);
+        Bullet bullet = bullets[index];
+
+        for(int cy = cellY(minY); cy <= maxCellY; cy++){
+            for(int cx = minCellX; cx <= maxCellX; cx++){
+                int cell = cx + cy * gridWidth;
+                if((cellTeams[cell] & mask) == 0) continue;
+
+                for(int e = cellStarts[cell]; e < cellStarts[cell + 1]; e++){
+                    int i = cellUnits[e];
+
+                    if(unitTested[i] == index + 1 || (mask & (1 << unitTeams[i])) == 0) continue;
+                    unitTested[i] = index + 1;
+
+                    if(unitMaxX[i] < minX || unitMinX[i] > maxX || unitMaxY[i] < minY || unitMinY[i] > maxY) continue;
+
+                    //swept test of the bullet center against the unit hitbox grown by the bullet size
+                    float time = hitTime(lastX, lastY, x - lastX, y - lastY,
+                        unitMinX[i] - width, unitMinY[i] - height, unitMaxX[i] + width, unitMaxY[i] + height);
+                    if(time < 0f) continue;
+
+                    Unit unit = units[i];
+                    if(bullet.collides(unit) && unit.collides(bullet)){
+                        float hitX = lastX + (x - lastX) * time, hitY = lastY + (y - lastY) * time;
+                        bullet.collision(unit, hitX, hitY);
+                        unit.collision(bullet, hitX, hitY);
+
+                        if(!bullet.getBulletType().pierce) return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**@return the fraction of the movement at which a moving point enters a box, or -1 if it does not.*/
+    private static float hitTime(float x, float y, float dx, float dy, float minX, float minY, float maxX, float maxY){
+        float enter = 0f, exit = 1f;
+
+        if(dx == 0f){
+            if(x < minX || x > maxX) return -1f;
+        }else{
+            float t1 = (minX - x) / dx, t2 = (maxX - x) / dx;
+            enter = Math.max(enter, Math.min(t1, t2));
+            exit = Math.min(exit, Math.max(t1, t2));
+        }
+
+        if(dy == 0f){
+            if(y < minY || y > maxY) return -1f;
+        }else{
+            float t1 = (minY - y) / dy, t2 = (maxY - y) / dy;
+            enter = Math.max(enter, Math.min(t1, t2));
+            exit = Math.min(exit, Math.max(t1, t2));
+        }
+
+        return enter <= exit ? enter : -1f;
+    }
+
+    /**@return the cell column of a position, clamped to the grid. Anything outside of the world is put in the border cells.*/
+    private int cellX(float x){
+        return Mathf.clamp((int)(x / cellSize), 0, gridWidth - 1);
+    }
+
+    private int cellY(float y){
+        return Mathf.clamp((int)(y / cellSize), 0, gridHeight - 1);
+    }
+
+    /**Sorts the gathered units into every cell that their hitboxes overlap.*/
+    private void createGrid(){
+        int width = world.width() * tilesize / cellSize + 1, height = world.height() * tilesize / cellSize + 1;
+        int cells = width * height;
+        gridWidth = width;
+        gridHeight = height;
+
+        if(cellTeams.length < cells){
+            cellTeams = new int[cells];
+            cellStarts = new int[cells + 1];
+        }
+
+        Arrays.fill(cellTeams, 0, cells, 0);
+        Arrays.fill(cellStarts, 0, cells + 1, 0);
+
+        //count the entries of every cell, offset by one
+        int total = 0;
+        for(int i = 0; i < unitCount; i++){
+            int minCellX = cellX(unitMinX[i]), maxCellX = cellX(unitMaxX[i]), maxCellY = cellY(unitMaxY[i]);
+            for(int cy = cellY(unitMinY[i]); cy <= maxCellY; cy++){
+                for(int cx = minCellX; cx <= maxCellX; cx++){
+                    cellStarts[cx + cy * width + 1]++;
+                    cellTeams[cx + cy * width] |= 1 << unitTeams[i];
+                    total++;
+                }
+            }
+        }
+
+        for(int i = 0; i < cells; i++){
+            cellStarts[i + 1] += cellStarts[i];
+        }
+
+        if(cellUnits.length < total){
+            cellUnits = new int[Math.max(total, cellUnits.length * 2)];
+        }
+
+        //place units, moving the start of each cell forward as it fills
+        for(int i = 0; i < unitCount; i++){
+            int minCellX = cellX(unitMinX[i]), maxCellX = cellX(unitMaxX[i]), maxCellY = cellY(unitMaxY[i]);
+            for(int cy = cellY(unitMinY[i]); cy <= maxCellY; cy++){
+                for(int cx = minCellX; cx <= maxCellX; cx++){
+                    cellUnits[cellStarts[cx + cy * width]++] = i;
+                }
+            }
+        }
+
+        //every start now points at the start of the next cell
+        System.arraycopy(cellStarts, 0, cellStarts, 1, cells);
+        cellStarts[0] = 0;
+    }
+
+    private void gatherBullets(){
+        Array<Bullet> all = bulletGroup.all();
+        ensureBullets(all.size);
+        bulletCount = 0;
+
+        for(int i = 0; i < all.size; i++){
+            Bullet bullet = all.get(i);
+            if(!bullet.getBulletType().collides) continue;
+
+            int index = bulletCount++;
+            bullet.hitbox(rect);
+            bullets[index] = bullet;
+            bulletX[index] = bullet.x;
+            bulletY[index] = bullet.y;
+            bulletLastX[index] = bullet.lastPosition().x;
+            bulletLastY[index] = bullet.lastPosition().y;
+            bulletWidth[index] = rect.width / 2f;
+            bulletHeight[index] = rect.height / 2f;
+            bulletTeams[index] = (byte) bullet.getTeam().ordinal();
+        }
+    }
+
+    private void gatherUnits(){
+        int total = playerGroup.size();
+        for(EntityGroup<?> group : unitGroups){
+            total += group.size();
+        }
+
+        ensureUnits(total);
+        unitCount = 0;
+
+        for(EntityGroup<?> group : unitGroups){
+            gatherUnits(group);
+        }
+        gatherUnits(playerGroup);
+    }
+
+    private void gatherUnits(EntityGroup<?> group){
+        Array<?> all = group.all();
+
+        for(int i = 0; i < all.size; i++){
+            Unit unit = (Unit) all.get(i);
+            if(unit.isDead()) continue;
+
+            int index = unitCount++;
+            unit.hitbox(rect);
+            units[index] = unit;
+            unitMinX[index] = rect.x;
+            unitMinY[index] = rect.y;
+            unitMaxX[index] = rect.x + rect.width;
+            unitMaxY[index] = rect.y + rect.height;
+            unitTeams[index] = (byte) unit.getTeam().ordinal();
+        }
+    }
+
+    private void ensureBullets(int size){
+        if(bullets.length >= size) return;
+
+        int length = Math.max(size, bullets.length * 2);
+        bullets = new Bullet[length];
+        bulletX = new float[length];
+        bulletY = new float[length];
+        bulletLastX = new float[length];
+        bulletLastY = new float[length];
+        bulletWidth = new float[length];
+        bulletHeight = new float[length];
+        bulletTeams = new byte[length];
+    }
+
+    private void ensureUnits(int size){
+        if(units.length >= size) return;
+
+        int length = Math.max(size, units.length * 2);
+        units = new Unit[length];
+        unitMinX = new float[length];
+        unitMinY = new float[length];
+        unitMaxX = new float[length];
+        unitMaxY = new float[length];
+        unitTeams = new byte[length];
+        unitTested = new int[length];
+    }
+}
@@ -54,6 +54,7 @@ public class ItemTransfer extends TimedEntity implements DrawTrait{
             Timers.run(i * 3, () -> create(item, x, y, tile, () -> {
             }));
         }
+        tile.entity.noSleep();
         tile.entity.items.add(item, amount);
     }
 
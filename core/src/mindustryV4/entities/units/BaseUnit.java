@@ -396,15 +396,16 @@ public abstract class BaseUnit extends Unit implements ShooterTrait{
 
     @Override
     public void write(DataOutput data) throws IOException{
-        super.writeSave(data);
+        //type goes first, as health is synced relative to its maximum
         data.writeByte(type.id);
+        super.writeSync(data, false);
     }
 
     @Override
     public void read(DataInput data, long time) throws IOException{
         float lastx = x, lasty = y, lastrot = rotation;
-        super.readSave(data);
         this.type = content.getByID(ContentType.unit, data.readByte());
+        super.readSync(data);
 
         interpolator.read(lastx, lasty, x, y, time, rotation);
         rotation = lastrot;
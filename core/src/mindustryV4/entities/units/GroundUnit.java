@@ -2,7 +2,7 @@ package mindustryV4.entities.units;
 
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.math.Vector2;
-import mindustryV4.Vars;
+import com.badlogic.gdx.utils.IntArray;
 import mindustryV4.entities.Predict;
 import mindustryV4.entities.TileEntity;
 import mindustryV4.entities.Units;
@@ -27,11 +27,17 @@ import static mindustryV4.Vars.world;
 
 public abstract class GroundUnit extends BaseUnit{
     protected static Translator vec = new Translator();
+    /**Ticks to wait before searching again after a search found no route.*/
+    protected static final float routeRetryDelay = 120f;
 
     protected float walkTime;
     protected float stuckTime;
     protected float baseRotation;
     protected Weapon weapon;
+    /**Tiles of the route followed by {@link #moveTo(Tile)}, as packed positions.*/
+    protected IntArray route = new IntArray();
+    protected int routeTarget = -1, routeIndex, routeVersion, routeClusters;
+    protected float routeRetry;
 
     public final UnitState
 
@@ -277,26 +283,55 @@ public abstract class GroundUnit extends BaseUnit{
     }
 
     protected void moveAwayFromCore(){
-        Team enemy = null;
-        for(Team team : Vars.state.teams.enemiesOf(team)){
-            if(Vars.state.teams.isActive(team)){
-                enemy = team;
-                break;
-            }
-        }
+        TileEntity core = getClosestCore();
 
-        if(enemy == null) return;
+        if(core == null || distanceTo(core) < 90f) return;
+
+        moveTo(core.tile);
+    }
 
+    /**Walks towards a tile along a route found by the hierarchical pathfinder.
+     * The route is re-planned when the target changes, the map changes along it or the unit strays from it.*/
+    protected void moveTo(Tile target){
         Tile tile = world.tileWorld(x, y);
-        if(tile == null) return;
-        Tile targetTile = world.pathfinder.getTargetTile(enemy, tile);
-        TileEntity core = getClosestCore();
+        if(tile == null || target == null) return;
 
-        if(tile == targetTile || core == null || distanceTo(core) < 90f) return;
+        boolean changed = false;
+        routeRetry -= Timers.delta();
+
+        if(route.size == 0){
+            //without a route, any change may have opened one, but failed searches are too expensive to repeat every tick
+            changed = routeVersion != world.routes.version() && routeRetry <= 0f;
+        }else if(routeVersion != world.routes.version()){
+            routeVersion = world.routes.version();
+            changed = world.routes.version(route) != routeClusters;
+        }
 
+        if(changed || routeTarget != target.packedPosition() ||
+                (routeIndex < route.size && !near(tile, route.get(routeIndex)))){
+            world.routes.findPath(tile, target, route);
+            routeTarget = target.packedPosition();
+            routeVersion = world.routes.version();
+            routeClusters = world.routes.version(route);
+            routeRetry = routeRetryDelay;
+            routeIndex = 0;
+        }
+
+        while(routeIndex < route.size && route.get(routeIndex) == tile.packedPosition()){
+            routeIndex++;
+        }
+
+        if(routeIndex >= route.size) return;
+
+        Tile targetTile = world.tile(route.get(routeIndex));
         float angle = angleTo(targetTile);
 
-        velocity.add(vec.trns(angleTo(targetTile), type.speed*Timers.delta()));
+        velocity.add(vec.trns(angle, type.speed*Timers.delta()));
         rotation = Mathf.slerpDelta(rotation, angle, type.rotatespeed);
     }
+
+    private boolean near(Tile tile, int pos){
+        Tile other = world.tile(pos);
+        return Math.abs(other.x - tile.x) <= 1 && Math.abs(other.y - tile.y) <= 1;
+    }
 }
@@ -13,10 +13,13 @@ import mindustryV4.maps.Map;
 import ucore.core.Events;
 import ucore.core.Settings;
 import ucore.core.Timers;
+import ucore.util.Log;
 import ucore.util.Strings;
 import ucore.util.ThreadArray;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static mindustryV4.Vars.*;
 
@@ -31,6 +34,16 @@ public class Saves{
     private long totalPlaytime;
     private long lastTimestamp;
 
+    /**Thread that compresses and writes autosaves.*/
+    private final ExecutorService saveExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Save Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final int saveStage = profiler.register("autosave");
+    /**Time that the game was paused for by the last autosave, in nanoseconds.*/
+    private long lastSavePause;
+
     public Saves(){
         Events.on(StateChangeEvent.class, event -> {
             if(event.to == State.menu){
@@ -76,17 +89,9 @@ public class Saves{
 
         if(!state.is(State.menu) && !state.gameOver && current != null && current.isAutosave()){
             time += Timers.delta();
-            if(time > Settings.getInt("saveinterval") * 60){
+            if(time > Settings.getInt("saveinterval") * 60 && !saving){
                 saving = true;
-
-                Timers.runTask(2f, () -> {
-                    try{
-                        current.save();
-                    }catch(Exception e){
-                        e.printStackTrace();
-                    }
-                    saving = false;
-                });
+                current.saveAsync();
 
                 time = 0;
             }
@@ -107,6 +112,11 @@ public class Saves{
         return saving;
     }
 
+    /**@return time that the game was paused for by the last autosave, in nanoseconds.*/
+    public long getLastSavePause(){
+        return lastSavePause;
+    }
+
     public SaveSlot addSave(String name){
         SaveSlot slot = new SaveSlot(nextSlot);
         nextSlot++;
@@ -186,6 +196,62 @@ public class Saves{
             });
         }
 
+        /**
+         * Saves without pausing the game for compression and file output.
+         * The game state is captured on the logic thread, then compressed and written on the save thread.
+         */
+        public void saveAsync(){
+            long time = totalPlaytime;
+
+            threads.runGraphics(() -> {
+                renderer.fog.writeFog();
+
+                threads.run(() -> {
+                    long prev = totalPlaytime;
+                    totalPlaytime = time;
+
+                    profiler.begin(saveStage);
+                    long start = TimeUtils.nanoTime();
+                    SaveIO.Snapshot snapshot;
+
+                    try{
+                        snapshot = SaveIO.snapshot(index);
+                    }catch(Exception e){
+                        e.printStackTrace();
+                        saving = false;
+                        return;
+                    }finally{
+                        lastSavePause = TimeUtils.timeSinceNanos(start);
+                        profiler.end(saveStage);
+                        totalPlaytime = prev;
+                    }
+
+                    Log.info("Autosave paused the game for {0}ms{1}.", lastSavePause / 1000000f, snapshot.delta ? " (delta)" : "");
+
+                    saveExecutor.execute(() -> {
+                        SaveMeta written = null;
+                        try{
+                            SaveIO.writeSnapshot(index, snapshot);
+                            written = SaveIO.getData(index);
+                        }catch(Exception e){
+                            e.printStackTrace();
+                        }
+
+                        SaveMeta result = written;
+                        threads.runDelay(() -> {
+                            if(result != null){
+                                meta = result;
+                                if(!state.is(State.menu)){
+                                    current = this;
+                                }
+                            }
+                            saving = false;
+                        });
+                    });
+                });
+            });
+        }
+
         public boolean isHidden(){
             return meta.sector != invalidSector;
         }
@@ -238,6 +304,7 @@ public class Saves{
 
         public void importFile(FileHandle file) throws IOException{
             try{
+                SaveIO.discardDeltas(index);
                 file.copyTo(SaveIO.fileFor(index));
             }catch(Exception e){
                 throw new IOException(e);
@@ -249,6 +316,7 @@ public class Saves{
                 if(!file.extension().equals(saveExtension)){
                     file = file.parent().child(file.nameWithoutExtension() + "." + saveExtension);
                 }
+                SaveIO.compact(index);
                 SaveIO.fileFor(index).copyTo(file);
             }catch(Exception e){
                 throw new IOException(e);
@@ -256,6 +324,7 @@ public class Saves{
         }
 
         public void delete(){
+            SaveIO.discardDeltas(index);
             SaveIO.fileFor(index).delete();
             saves.removeValue(this, true);
             saveMap.remove(index);
@@ -3,11 +3,14 @@ package mindustryV4.io;
 import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntIntMap;
 import com.badlogic.gdx.utils.IntMap;
 import mindustryV4.Vars;
 import mindustryV4.io.versions.Save16;
+import mindustryV4.io.versions.Save17;
 
 import java.io.*;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.InflaterInputStream;
 
@@ -17,8 +20,25 @@ public class SaveIO{
     public static final IntArray breakingVersions = IntArray.with(47, 48, 49, 50, 51, 52, 53, 54, 55, 56);
     public static final IntMap<SaveFileVersion> versions = new IntMap<>();
     public static final Array<SaveFileVersion> versionArray = Array.with(
-        new Save16()
+        new Save16(),
+        new Save17()
     );
+    /**Amount of delta segments after which they are merged into the save.*/
+    public static final int maxSegments = 10;
+
+    /**Size of the last snapshot, used as initial capacity of the next one.*/
+    private static int lastSnapshotSize;
+    /**Slot that the world was last saved to or loaded from, and the chunk versions and map size at that time.*/
+    private static volatile int deltaSlot = -1;
+    private static int[] deltaVersions = {};
+    /**Whether every chunk had awake entities at that time. Their state may have changed before they fell asleep,
+     * which does not change the chunk version, so these chunks are always written to the next segment.*/
+    private static boolean[] deltaActive = {};
+    private static int deltaWidth, deltaHeight;
+    /**Whether the last save was loaded from its backup.*/
+    private static boolean loadedBackup;
+    /**Amount of synchronous saves of every slot. Snapshots taken before the latest one are outdated.*/
+    private static final IntIntMap generations = new IntIntMap();
 
     static{
         for(SaveFileVersion version : versionArray){
@@ -30,20 +50,221 @@ public class SaveIO{
         return versionArray.peek();
     }
 
-    public static void saveToSlot(int slot){
+    /**Saves to a slot. Snapshots of this slot that were taken before, but not written yet, are discarded by {@link #writeSnapshot(int, Snapshot)}.*/
+    public static synchronized void saveToSlot(int slot){
+        generations.getAndIncrement(slot, 0, 1);
+
         FileHandle file = fileFor(slot);
         boolean exists = file.exists();
         if(exists) file.moveTo(file.sibling(file.name() + "-backup." + file.extension()));
         try{
+            deltaFileFor(file).delete();
             write(fileFor(slot));
+            markSaved(slot);
         }catch(Exception e){
             if(exists) file.sibling(file.name() + "-backup." + file.extension()).moveTo(file);
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Writes the game state into memory without compressing it, which is much faster than {@link #saveToSlot(int)}.
+     * If the world was last saved to or loaded from the same slot, only the chunks that changed since are written,
+     * and the result is a delta segment. Either way, it can be written to the slot on another thread with {@link #writeSnapshot(int, Snapshot)}.
+     */
+    public static Snapshot snapshot(int slot){
+        IntArray chunks = null;
+
+        if(slot == deltaSlot && deltaWidth == world.width() && deltaHeight == world.height()){
+            chunks = new IntArray();
+            for(int i = 0; i < world.chunks(); i++){
+                if(world.chunkVersion(i) != deltaVersions[i] || deltaActive[i] || world.hasAwakeEntities(i)){
+                    chunks.add(i);
+                }
+            }
+
+            if(chunks.size == world.chunks()){
+                chunks = null;
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(lastSnapshotSize + 1024);
+
+        try{
+            DataOutputStream stream = new DataOutputStream(bytes);
+            ((Save17) getVersion()).write(stream, chunks);
+            stream.close();
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }
+
+        markSaved(slot);
+        lastSnapshotSize = bytes.size();
+        return new Snapshot(bytes.toByteArray(), chunks != null, generation(slot));
+    }
+
+    /**
+     * Compresses a snapshot and writes it to a slot. Can be called from any thread.
+     * Full saves are written to a temporary file first, which replaces the old save once it is complete; the old save is kept as backup.
+     * Delta segments are appended to the delta file of the slot, which is merged into the save once it gets too large.
+     * Snapshots taken before the slot was last saved with {@link #saveToSlot(int)} are outdated, and are not written.
+     */
+    public static synchronized void writeSnapshot(int slot, Snapshot snapshot) throws IOException{
+        //a delta would be applied to a newer save than its own, and a full snapshot would replace it
+        if(snapshot.generation != generations.get(slot, 0)) return;
+
+        FileHandle file = fileFor(slot);
+
+        try{
+            if(snapshot.delta){
+                FileHandle deltas = deltaFileFor(file);
+                byte[] segment = compress(snapshot.data);
+
+                try(DataOutputStream stream = new DataOutputStream(deltas.write(true))){
+                    stream.writeInt(segment.length);
+                    stream.write(segment);
+                }
+
+                if(readSegments(deltas).size >= maxSegments || deltas.length() > file.length()){
+                    compact(slot);
+                }
+            }else{
+                //old segments must never be applied to the new save
+                deltaFileFor(file).delete();
+                replace(file, compress(snapshot.data), true);
+            }
+        }catch(IOException | RuntimeException e){
+            //the chunks of this snapshot were not saved, so the next save has to be complete
+            deltaSlot = -1;
+            throw e;
+        }
+    }
+
+    /**Merges the delta segments of a slot into its save. Can be called from any thread.*/
+    public static synchronized void compact(int slot) throws IOException{
+        FileHandle file = fileFor(slot), deltas = deltaFileFor(file);
+        if(!deltas.exists()) return;
+
+        replace(file, compress(merge(file, deltas)), false);
+        //segments applied to their merged save do not change it, so removing them last is safe
+        deltas.delete();
+    }
+
+    /**Removes the delta segments of a slot. Call when its save is replaced or deleted.*/
+    public static synchronized void discardDeltas(int slot){
+        deltaFileFor(fileFor(slot)).delete();
+        if(deltaSlot == slot){
+            deltaSlot = -1;
+        }
+    }
+
     public static void loadFromSlot(int slot){
         load(fileFor(slot));
+
+        //later segments would be appended to the save that failed to load, not to its backup
+        if(!loadedBackup && getData(slot).version == getVersion().version){
+            markSaved(slot);
+        }
+    }
+
+    private static synchronized int generation(int slot){
+        return generations.get(slot, 0);
+    }
+
+    public static FileHandle deltaFileFor(FileHandle file){
+        return file.sibling(file.name() + "-delta");
+    }
+
+    /**Records the current chunk versions and awake chunks, so that the next snapshot of this slot only contains the chunks that changed.*/
+    private static void markSaved(int slot){
+        if(deltaVersions.length != world.chunks()){
+            deltaVersions = new int[world.chunks()];
+            deltaActive = new boolean[world.chunks()];
+        }
+
+        for(int i = 0; i < deltaVersions.length; i++){
+            deltaVersions[i] = world.chunkVersion(i);
+            deltaActive[i] = world.hasAwakeEntities(i);
+        }
+
+        deltaWidth = world.width();
+        deltaHeight = world.height();
+        deltaSlot = slot;
+    }
+
+    /**Writes data to a temporary file, which then replaces the file.*/
+    private static void replace(FileHandle file, byte[] data, boolean backup){
+        FileHandle temp = file.sibling(file.name() + ".tmp");
+        temp.writeBytes(data, false);
+
+        if(backup && file.exists()){
+            file.copyTo(file.sibling(file.name() + "-backup." + file.extension()));
+        }
+
+        //renaming replaces the old file atomically, but fails on platforms that do not allow renaming over existing files
+        if(!temp.file().renameTo(file.file())){
+            file.delete();
+            temp.moveTo(file);
+        }
+    }
+
+    /**@return a save combined with all of its delta segments, uncompressed.*/
+    private static byte[] merge(FileHandle file, FileHandle deltas) throws IOException{
+        Array<byte[]> segments = readSegments(deltas);
+        for(int i = 0; i < segments.size; i++){
+            segments.set(i, decompress(segments.get(i)));
+        }
+
+        return ((Save17) versions.get(17)).merge(decompress(file.readBytes()), segments);
+    }
+
+    /**@return all complete segments of a delta file, compressed. An incomplete segment at the end is ignored.*/
+    private static Array<byte[]> readSegments(FileHandle deltas) throws IOException{
+        Array<byte[]> segments = new Array<>();
+        if(!deltas.exists()) return segments;
+
+        byte[] data = deltas.readBytes();
+        DataInputStream stream = new DataInputStream(new ByteArrayInputStream(data));
+        int position = 0;
+
+        while(data.length - position >= 4){
+            int length = stream.readInt();
+            if(data.length - position - 4 < length) break;
+
+            byte[] segment = new byte[length];
+            stream.readFully(segment);
+            segments.add(segment);
+            position += 4 + length;
+        }
+
+        return segments;
+    }
+
+    private static byte[] compress(byte[] data) throws IOException{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4);
+        Deflater deflater = new Deflater();
+
+        try(OutputStream stream = new DeflaterOutputStream(bytes, deflater, 8192)){
+            stream.write(data);
+        }finally{
+            deflater.end();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] data) throws IOException{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length * 4);
+
+        try(InputStream stream = new InflaterInputStream(new ByteArrayInputStream(data))){
+            byte[] buffer = new byte[8192];
+            int read;
+            while((read = stream.read(buffer)) > 0){
+                bytes.write(buffer, 0, read);
+            }
+        }
+
+        return bytes.toByteArray();
     }
 
     public static DataInputStream getSlotStream(int slot){
@@ -76,6 +297,16 @@ public class SaveIO{
     }
 
     public static SaveMeta getData(int slot){
+        try{
+            //the last delta segment has the latest state
+            Array<byte[]> segments = readSegments(deltaFileFor(fileFor(slot)));
+            if(segments.size > 0){
+                return getData(new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(segments.peek()))));
+            }
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }
+
         return getData(getSlotStream(slot));
     }
 
@@ -119,13 +350,20 @@ public class SaveIO{
     }
 
     public static void load(FileHandle file){
+        loadedBackup = false;
         try{
-            load(new InflaterInputStream(file.read()));
-        }catch(RuntimeException e){
+            FileHandle deltas = deltaFileFor(file);
+            if(deltas.exists()){
+                load(new ByteArrayInputStream(merge(file, deltas)));
+            }else{
+                load(new InflaterInputStream(file.read()));
+            }
+        }catch(IOException | RuntimeException e){
             e.printStackTrace();
             FileHandle backup = file.sibling(file.name() + "-backup." + file.extension());
             if(backup.exists()){
                 load(new InflaterInputStream(backup.read()));
+                loadedBackup = true;
             }else{
                 throw new RuntimeException(e);
             }
@@ -154,4 +392,19 @@ public class SaveIO{
     public static SaveFileVersion getVersion(){
         return versionArray.peek();
     }
+
+    /**Game state written by {@link #snapshot(int)}.*/
+    public static class Snapshot{
+        public final byte[] data;
+        /**Whether this only contains the chunks that changed since the last save.*/
+        public final boolean delta;
+        /**Amount of synchronous saves of the slot when this was taken.*/
+        final int generation;
+
+        Snapshot(byte[] data, boolean delta, int generation){
+            this.data = data;
+            this.delta = delta;
+            this.generation = generation;
+        }
+    }
 }
@@ -0,0 +1,236 @@
+package mindustryV4.io.versions;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.TimeUtils;
+import mindustryV4.content.blocks.StorageBlocks;
+import mindustryV4.game.Difficulty;
+import mindustryV4.game.GameMode;
+import mindustryV4.game.Version;
+import mindustryV4.io.SaveFileVersion;
+import mindustryV4.maps.Map;
+import mindustryV4.net.NetworkIO;
+import mindustryV4.world.Tile;
+
+import java.io.*;
+
+import static mindustryV4.Vars.*;
+import static mindustryV4.core.World.chunkSize;
+
+/**
+ * Stores the map in chunks, so that a save can be followed by delta segments that only contain the chunks that changed.
+ * Saves and segments have the same layout: the general state, all entities, and a list of chunks, which is complete in saves.
+ * Chunks use the same encoding as the regions of world streams.
+ */
+public class Save17 extends SaveFileVersion{
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream bufferStream = new DataOutputStream(buffer);
+
+    public Save17(){
+        super(17);
+    }
+
+    @Override
+    public void read(DataInputStream stream) throws IOException{
+        stream.readLong(); //time
+        stream.readLong(); //total playtime
+        stream.readInt(); //build
+        int sector = stream.readInt(); //sector ID
+
+        //general state
+        byte mode = stream.readByte();
+        String mapname = stream.readUTF();
+        Map map = world.maps.getByName(mapname);
+        world.setMap(map);
+
+        world.setSector(world.sectors.get(sector));
+
+        int wave = stream.readInt();
+        byte difficulty = stream.readByte();
+        float wavetime = stream.readFloat();
+
+        state.difficulty = Difficulty.values()[difficulty];
+        state.mode = GameMode.values()[mode];
+        state.wave = wave;
+        state.wavetime = wavetime;
+
+        stream.readInt(); //length of content header, spawner and entities
+
+        content.setTemporaryMapper(readContentHeader(stream));
+
+        world.spawner.read(stream);
+
+        readEntities(stream);
+
+        readChunks(stream);
+    }
+
+    @Override
+    public void write(DataOutputStream stream) throws IOException{
+        write(stream, null);
+    }
+
+    /**Writes the general state, entities and the specified chunks, or all chunks if null.*/
+    public void write(DataOutputStream stream, IntArray chunks) throws IOException{
+        //--META--
+        stream.writeInt(version); //version id
+        stream.writeLong(TimeUtils.millis()); //last saved
+        stream.writeLong(headless ? 0 : control.saves.getTotalPlaytime()); //playtime
+        stream.writeInt(Version.build); //build
+        stream.writeInt(world.getSector() == null ? invalidSector : world.getSector().packedPosition()); //sector ID
+
+        //--GENERAL STATE--
+        stream.writeByte(state.mode.ordinal()); //gamemode
+        stream.writeUTF(world.getMap().name); //map ID
+
+        stream.writeInt(state.wave); //wave
+        stream.writeByte(state.difficulty.ordinal()); //difficulty ordinal
+        stream.writeFloat(state.wavetime); //wave countdown
+
+        //length-prefixed, so that merging segments can skip it
+        buffer.reset();
+        writeContentHeader(bufferStream);
+        world.spawner.write(bufferStream);
+        writeEntities(bufferStream);
+        stream.writeInt(buffer.size());
+        buffer.writeTo(stream);
+
+        //--MAP--
+        stream.writeShort(world.width());
+        stream.writeShort(world.height());
+        stream.writeInt(chunks == null ? world.chunks() : chunks.size);
+
+        for(int i = 0; i < (chunks == null ? world.chunks() : chunks.size); i++){
+            buffer.reset();
+            NetworkIO.writeRegion(chunks == null ? i : chunks.get(i), bufferStream);
+            stream.writeInt(buffer.size());
+            buffer.writeTo(stream);
+        }
+    }
+
+    /**
+     * Combines a save with delta segments that were written after it.
+     * The result has the general state and entities of the last segment, and the latest version of every chunk.
+     */
+    public byte[] merge(byte[] base, Array<byte[]> segments) throws IOException{
+        Parts merged = new Parts(base);
+        byte[] header = base;
+        int headerLength = merged.headerLength;
+
+        for(byte[] segment : segments){
+            Parts parts = new Parts(segment);
+            if(parts.width != merged.width || parts.height != merged.height){
+                throw new IOException("Delta segment does not match the size of the save.");
+            }
+
+            header = segment;
+            headerLength = parts.headerLength;
+
+            for(int i = 0; i < parts.chunks.size; i++){
+                int chunk = parts.chunks.get(i);
+                merged.sources[chunk] = segment;
+                merged.offsets[chunk] = parts.offsets[chunk];
+                merged.lengths[chunk] = parts.lengths[chunk];
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(base.length);
+        DataOutputStream stream = new DataOutputStream(bytes);
+        stream.write(header, 0, headerLength);
+        stream.writeShort(merged.width);
+        stream.writeShort(merged.height);
+        stream.writeInt(merged.sources.length);
+
+        for(int i = 0; i < merged.sources.length; i++){
+            stream.writeInt(merged.lengths[i]);
+            stream.write(merged.sources[i], merged.offsets[i], merged.lengths[i]);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private void readChunks(DataInputStream stream) throws IOException{
+        short width = stream.readShort();
+        short height = stream.readShort();
+
+        if(world.getSector() != null){
+            world.setMap(new Map("Sector " + world.getSector().x + ", " + world.getSector().y, width, height));
+        }else if(world.getMap() == null){
+            world.setMap(new Map("unknown", width, height));
+        }
+
+        world.beginMapLoad();
+
+        Tile[][] tiles = world.createTiles(width, height);
+
+        int chunks = stream.readInt();
+        for(int i = 0; i < chunks; i++){
+            stream.readInt(); //length
+            NetworkIO.loadRegion(stream);
+        }
+
+        for(int x = 0; x < width; x++){
+            for(int y = 0; y < height; y++){
+                Tile tile = tiles[x][y];
+                if(tile.entity != null && tile.block() == StorageBlocks.core){
+                    state.teams.get(tile.getTeam()).cores.add(tile);
+                }
+            }
+        }
+
+        content.setTemporaryMapper(null);
+        world.endMapLoad();
+    }
+
+    /**Positions of the parts of a save or segment.*/
+    private static class Parts{
+        /**Length of the general state and entities, which come first.*/
+        final int headerLength;
+        final short width, height;
+        /**Chunks in this save or segment, in order.*/
+        final IntArray chunks = new IntArray();
+        /**Data of every chunk of the map, by chunk index.*/
+        final byte[][] sources;
+        final int[] offsets, lengths;
+
+        Parts(byte[] data) throws IOException{
+            ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+            DataInputStream stream = new DataInputStream(bytes);
+
+            stream.readInt(); //version
+            stream.readLong(); //time
+            stream.readLong(); //total playtime
+            stream.readInt(); //build
+            stream.readInt(); //sector ID
+            stream.readByte(); //mode
+            stream.readUTF(); //map
+            stream.readInt(); //wave
+            stream.readByte(); //difficulty
+            stream.readFloat(); //wave countdown
+            stream.skipBytes(stream.readInt()); //content header, spawner and entities
+
+            headerLength = data.length - bytes.available();
+            width = stream.readShort();
+            height = stream.readShort();
+
+            int total = ((width + chunkSize - 1) / chunkSize) * ((height + chunkSize - 1) / chunkSize);
+            sources = new byte[total][];
+            offsets = new int[total];
+            lengths = new int[total];
+
+            int amount = stream.readInt();
+            for(int i = 0; i < amount; i++){
+                int length = stream.readInt();
+                int offset = data.length - bytes.available();
+                //chunk data starts with the chunk index
+                int chunk = (data[offset] & 0xff) << 8 | (data[offset + 1] & 0xff);
+
+                chunks.add(chunk);
+                sources[chunk] = data;
+                offsets[chunk] = offset;
+                lengths[chunk] = length;
+                stream.skipBytes(length);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package mindustryV4.net;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+ * Reads values written by a {@link BitWriter}. Not thread safe.
+ */
+public class BitReader{
+    private DataInput input;
+    private long bits;
+    private int count;
+
+    /**Starts reading bits from an input.*/
+    public BitReader begin(DataInput input){
+        this.input = input;
+        bits = 0;
+        count = 0;
+        return this;
+    }
+
+    /**@param amount amount of bits, at most 32.
+     * @return the value, without sign.*/
+    public int read(int amount) throws IOException{
+        while(count < amount){
+            bits |= (long) input.readUnsignedByte() << count;
+            count += 8;
+        }
+
+        int value = (int)(bits & ((1L << amount) - 1));
+        bits >>>= amount;
+        count -= amount;
+        return value;
+    }
+
+    /**@return a value that was written as two's complement.*/
+    public int readSigned(int amount) throws IOException{
+        return read(amount) << (32 - amount) >> (32 - amount);
+    }
+
+    public boolean readBoolean() throws IOException{
+        return read(1) != 0;
+    }
+
+    public float readFraction(int amount) throws IOException{
+        return read(amount) / (float)((1 << amount) - 1);
+    }
+
+    /**Skips the padding of the last byte.*/
+    public void end(){
+        bits = 0;
+        count = 0;
+        input = null;
+    }
+
+    public static int readVarInt(DataInput input) throws IOException{
+        int value = 0;
+        for(int shift = 0; ; shift += 7){
+            int b = input.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+    }
+}
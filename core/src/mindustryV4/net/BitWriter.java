@@ -0,0 +1,65 @@
+package mindustryV4.net;
+
+import ucore.util.Mathf;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Packs values into as few bits as needed and writes them out as whole bytes.
+ * Read back with a {@link BitReader}. Not thread safe.
+ */
+public class BitWriter{
+    private DataOutput output;
+    private long bits;
+    private int count;
+
+    /**Starts writing bits to an output.*/
+    public BitWriter begin(DataOutput output){
+        this.output = output;
+        bits = 0;
+        count = 0;
+        return this;
+    }
+
+    /**Writes the lowest bits of a value. Negative values are written as two's complement.
+     * @param amount amount of bits, at most 32.*/
+    public void write(int value, int amount) throws IOException{
+        bits |= (value & ((1L << amount) - 1)) << count;
+        count += amount;
+
+        while(count >= 8){
+            output.writeByte((int) bits);
+            bits >>>= 8;
+            count -= 8;
+        }
+    }
+
+    public void writeBoolean(boolean value) throws IOException{
+        write(value ? 1 : 0, 1);
+    }
+
+    /**Writes a value from 0 to 1, rounded to the nearest step that fits in the specified amount of bits.*/
+    public void writeFraction(float value, int amount) throws IOException{
+        write(Math.round(Mathf.clamp(value) * ((1 << amount) - 1)), amount);
+    }
+
+    /**Writes the remaining bits, padded to a whole byte.*/
+    public void end() throws IOException{
+        if(count > 0){
+            output.writeByte((int) bits);
+        }
+        bits = 0;
+        count = 0;
+        output = null;
+    }
+
+    /**Writes an unsigned integer in 7-bit groups, so that small values take fewer bytes.*/
+    public static void writeVarInt(DataOutput output, int value) throws IOException{
+        while((value & ~0x7f) != 0){
+            output.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+}
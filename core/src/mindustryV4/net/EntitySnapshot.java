@@ -0,0 +1,134 @@
+package mindustryV4.net;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntIntMap;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Serialized state of every synced entity in one snapshot, used as a baseline for delta snapshots.
+ * Each entry holds the entity type ID followed by the entity's sync data.
+ */
+public class EntitySnapshot{
+    /**ID of the snapshot this state belongs to, or -1 if it has none.*/
+    public int id = -1;
+
+    private final IntArray groups = new IntArray(), entities = new IntArray(), offsets = new IntArray(), lengths = new IntArray();
+    /**Maps entity IDs to entry indices, per group ID.*/
+    private final Array<IntIntMap> lookup = new Array<>();
+    private byte[] data = new byte[1024];
+    private int position;
+
+    /**Removes all entries and assigns a new snapshot ID.*/
+    public void clear(int id){
+        this.id = id;
+        groups.clear();
+        entities.clear();
+        offsets.clear();
+        lengths.clear();
+        for(IntIntMap map : lookup){
+            map.clear();
+        }
+        position = 0;
+    }
+
+    /**Adds an entry, copying its bytes from the specified array.*/
+    public void add(int group, int entity, byte[] bytes, int offset, int length){
+        System.arraycopy(bytes, offset, data, reserve(length), length);
+        register(group, entity, length);
+    }
+
+    /**Adds an entry, reading its bytes from the specified input.*/
+    public void read(int group, int entity, DataInput input, int length) throws IOException{
+        input.readFully(data, reserve(length), length);
+        register(group, entity, length);
+    }
+
+    /**Adds a copy of an entry from another snapshot.*/
+    public void add(EntitySnapshot other, int index){
+        add(other.group(index), other.entity(index), other.data, other.offset(index), other.length(index));
+    }
+
+    /**Adds copies of a range of entries from another snapshot.*/
+    public void addAll(EntitySnapshot other, int from, int to){
+        if(from >= to) return;
+
+        //entries are stored in order, so their data is contiguous
+        int start = other.offset(from);
+        int length = other.offset(to - 1) + other.length(to - 1) - start;
+        System.arraycopy(other.data, start, data, reserve(length), length);
+
+        for(int i = from; i < to; i++){
+            register(other.group(i), other.entity(i), other.length(i));
+        }
+    }
+
+    /**@return the index of the entry of this entity, or -1 if it is not in this snapshot.*/
+    public int find(int group, int entity){
+        return group < lookup.size ? lookup.get(group).get(entity, -1) : -1;
+    }
+
+    /**@return whether this snapshot has any entities of the specified group.*/
+    public boolean contains(int group){
+        return group < lookup.size && lookup.get(group).size > 0;
+    }
+
+    /**@return whether the bytes of an entry equal those of an entry in another snapshot.*/
+    public boolean matches(int index, EntitySnapshot other, int otherIndex){
+        int length = length(index);
+        if(length != other.length(otherIndex)) return false;
+
+        int offset = offset(index), otherOffset = other.offset(otherIndex);
+        for(int i = 0; i < length; i++){
+            if(data[offset + i] != other.data[otherOffset + i]) return false;
+        }
+        return true;
+    }
+
+    public int size(){
+        return groups.size;
+    }
+
+    public int group(int index){
+        return groups.get(index);
+    }
+
+    public int entity(int index){
+        return entities.get(index);
+    }
+
+    public int offset(int index){
+        return offsets.get(index);
+    }
+
+    public int length(int index){
+        return lengths.get(index);
+    }
+
+    public byte[] data(){
+        return data;
+    }
+
+    private int reserve(int length){
+        if(position + length > data.length){
+            data = Arrays.copyOf(data, Math.max(data.length * 2, position + length));
+        }
+        return position;
+    }
+
+    private void register(int group, int entity, int length){
+        while(lookup.size <= group){
+            lookup.add(new IntIntMap());
+        }
+
+        lookup.get(group).put(entity, groups.size);
+        groups.add(group);
+        entities.add(entity);
+        offsets.add(position);
+        lengths.add(length);
+        position += length;
+    }
+}
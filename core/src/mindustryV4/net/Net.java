@@ -10,6 +10,8 @@ import com.badlogic.gdx.utils.IntMap;
 import com.badlogic.gdx.utils.ObjectMap;
 import mindustryV4.core.Platform;
 import mindustryV4.gen.Call;
+import mindustryV4.net.Packets.InvokeBatchPacket;
+import mindustryV4.net.Packets.InvokePacket;
 import mindustryV4.net.Packets.KickReason;
 import mindustryV4.net.Packets.StreamBegin;
 import mindustryV4.net.Packets.StreamChunk;
@@ -22,6 +24,7 @@ import ucore.util.Log;
 import ucore.util.Pooling;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import static mindustryV4.Vars.*;
 
@@ -33,11 +36,24 @@ public class Net{
     private static Array<Object> packetQueue = new Array<>();
     private static ObjectMap<Class<?>, Consumer> clientListeners = new ObjectMap<>();
     private static ObjectMap<Class<?>, BiConsumer<Integer, Object>> serverListeners = new ObjectMap<>();
+    /**Client listeners that recieve streams while they arrive, by stream type.*/
+    private static ObjectMap<Class<?>, Consumer<StreamBuilder>> streamListeners = new ObjectMap<>();
     private static ClientProvider clientProvider;
     private static ServerProvider serverProvider;
 
     private static IntMap<StreamBuilder> streams = new IntMap<>();
 
+    /**Maximum size of batched invoke packets; UDP batches are kept below common MTUs.*/
+    private static final int maxTCPBatchSize = 4000, maxUDPBatchSize = 1200;
+    /**Connection ID that invocations sent to the server are batched under.*/
+    private static final int serverBatchID = -1;
+    /**Invoke packets waiting to be sent, by connection ID.*/
+    private static IntMap<ByteBuffer> tcpBatches = new IntMap<>(), udpBatches = new IntMap<>();
+    /**Reused packet for sending batches. Its data is the batch buffer itself, so providers must never pool it.*/
+    private static InvokeBatchPacket batchPacket = new InvokeBatchPacket();
+    /**Reused packet for reading batched invocations.*/
+    private static InvokePacket batchEntry = new InvokePacket();
+
     public static boolean hasClient(){
         return clientProvider != null;
     }
@@ -143,12 +159,14 @@ public class Net{
             Call.onKick(con.id, KickReason.serverClose);
         }
 
+        flushBatches();
         serverProvider.close();
         server = false;
         active = false;
     }
 
     public static void disconnect(){
+        clearBatches();
         clientProvider.disconnect();
         server = false;
         active = false;
@@ -186,12 +204,27 @@ public class Net{
 
     /**
      * Send an object to all connected clients, or to the server if this is a client.
+     * Invoke packets are batched until the next {@link #flushBatches()}.
      */
     public static void send(Object object, SendMode mode){
         if(server){
-            if(serverProvider != null) serverProvider.send(object, mode);
+            if(serverProvider == null) return;
+
+            if(object instanceof InvokePacket){
+                for(NetConnection con : getConnections()){
+                    sendTo(con.id, object, mode);
+                }
+            }else{
+                flushBatches();
+                serverProvider.send(object, mode);
+            }
         }else{
-            if(clientProvider != null) clientProvider.send(object, mode);
+            if(clientProvider == null) return;
+
+            if(!(object instanceof InvokePacket) || !batch(serverBatchID, (InvokePacket) object, mode)){
+                flushBatches(serverBatchID);
+                clientProvider.send(object, mode);
+            }
         }
     }
 
@@ -199,20 +232,105 @@ public class Net{
      * Send an object to a certain client. Server-side only
      */
     public static void sendTo(int id, Object object, SendMode mode){
-        serverProvider.sendTo(id, object, mode);
+        if(!(object instanceof InvokePacket) || !batch(id, (InvokePacket) object, mode)){
+            flushBatches(id);
+            serverProvider.sendTo(id, object, mode);
+        }
     }
 
     /**
      * Send an object to everyone EXCEPT certain client. Server-side only
      */
     public static void sendExcept(int id, Object object, SendMode mode){
-        serverProvider.sendExcept(id, object, mode);
+        if(object instanceof InvokePacket){
+            for(NetConnection con : getConnections()){
+                if(con.id != id) sendTo(con.id, object, mode);
+            }
+        }else{
+            flushBatches();
+            serverProvider.sendExcept(id, object, mode);
+        }
+    }
+
+    /**
+     * Sends all batched invoke packets. Called once per update.
+     */
+    public static void flushBatches(){
+        flushBatches(tcpBatches, SendMode.tcp);
+        flushBatches(udpBatches, SendMode.udp);
+    }
+
+    /**
+     * Sends the batched invoke packets of a single connection, so that they arrive before any object sent after.
+     */
+    private static void flushBatches(int id){
+        flush(id, tcpBatches.get(id), SendMode.tcp);
+        flush(id, udpBatches.get(id), SendMode.udp);
+    }
+
+    private static void flushBatches(IntMap<ByteBuffer> batches, SendMode mode){
+        for(IntMap.Entries<ByteBuffer> it = batches.entries(); it.hasNext(); ){
+            IntMap.Entry<ByteBuffer> entry = it.next();
+
+            //drop batches of connections that no longer exist
+            if(entry.key != serverBatchID && (!server || getConnection(entry.key) == null)){
+                it.remove();
+            }else{
+                flush(entry.key, entry.value, mode);
+            }
+        }
+    }
+
+    private static void flush(int id, ByteBuffer batch, SendMode mode){
+        if(batch == null || batch.position() == 0) return;
+
+        batch.flip();
+        batchPacket.data = batch;
+
+        if(id == serverBatchID){
+            if(clientProvider != null) clientProvider.send(batchPacket, mode);
+        }else{
+            serverProvider.sendTo(id, batchPacket, mode);
+        }
+
+        batch.clear();
+    }
+
+    /**
+     * Adds an invoke packet to the batch of a connection.
+     * @return false if the packet is too large to be batched, in which case it should be sent directly.
+     */
+    private static boolean batch(int id, InvokePacket packet, SendMode mode){
+        int max = mode == SendMode.tcp ? maxTCPBatchSize : maxUDPBatchSize;
+        //type, priority, length and data
+        int size = packet.writeLength + 4;
+
+        if(size > max) return false;
+
+        IntMap<ByteBuffer> batches = mode == SendMode.tcp ? tcpBatches : udpBatches;
+        ByteBuffer batch = batches.get(id);
+
+        if(batch == null){
+            batches.put(id, batch = ByteBuffer.allocateDirect(max));
+        }else if(batch.remaining() < size){
+            flush(id, batch, mode);
+        }
+
+        packet.write(batch);
+        return true;
+    }
+
+    private static void clearBatches(){
+        tcpBatches.clear();
+        udpBatches.clear();
     }
 
     /**
      * Send a stream to a specific client. Server-side only.
+     * Calls batched for the client before this are sent first, so they arrive before the stream.
      */
     public static void sendStream(int id, Streamable stream){
+        flushBatches(id);
         serverProvider.sendStream(id, stream);
     }
 
@@ -237,6 +355,14 @@ public class Net{
         clientListeners.put(type, listener);
     }
 
+    /**
+     * Registers a client listener that is called every time a part of a stream of this type is recieved,
+     * so that it can be read while the rest arrives. The stream is not handled by {@link #handleClient} afterwards.
+     */
+    public static <T extends Streamable> void handleClientStream(Class<T> type, Consumer<StreamBuilder> listener){
+        streamListeners.put(type, listener);
+    }
+
     /**
      * Registers a server listener for when an object is recieved.
      */
@@ -259,10 +385,36 @@ public class Net{
                 throw new RuntimeException("Recieved stream chunk without a StreamBegin beforehand!");
             }
             builder.add(c.data);
+            Consumer<StreamBuilder> listener = streamListeners.get(Registrator.getByID(builder.type).type);
             if(builder.isDone()){
                 streams.remove(builder.id);
+            }
+
+            if(listener != null){
+                listener.accept(builder);
+            }else if(builder.isDone()){
                 handleClientReceived(builder.build());
             }
+        }else if(object instanceof InvokeBatchPacket){
+            ByteBuffer data = ((InvokeBatchPacket) object).data;
+            Consumer listener = clientListeners.get(InvokePacket.class);
+
+            while(data.hasRemaining()){
+                int start = data.position();
+                batchEntry.read(data);
+
+                if(clientLoaded || batchEntry.isImportant()){
+                    if(listener != null) listener.accept(batchEntry);
+                }else if(!batchEntry.isUnimportant()){
+                    //queued packets are kept until loading finishes, so they need their own copy
+                    InvokePacket queued = new InvokePacket();
+                    data.position(start);
+                    queued.read(data);
+                    packetQueue.add(queued);
+                }
+            }
+
+            Pooling.free(object);
         }else if(clientListeners.get(object.getClass()) != null){
 
             if(clientLoaded || ((object instanceof Packet) && ((Packet) object).isImportant())){
@@ -285,7 +437,17 @@ public class Net{
      */
     public static void handleServerReceived(int connection, Object object){
 
-        if(serverListeners.get(object.getClass()) != null){
+        if(object instanceof InvokeBatchPacket){
+            ByteBuffer data = ((InvokeBatchPacket) object).data;
+            BiConsumer<Integer, Object> listener = serverListeners.get(InvokePacket.class);
+
+            while(data.hasRemaining()){
+                batchEntry.read(data);
+                if(listener != null) listener.accept(connection, batchEntry);
+            }
+
+            Pooling.free(object);
+        }else if(serverListeners.get(object.getClass()) != null){
             if(serverListeners.get(object.getClass()) != null)
                 serverListeners.get(object.getClass()).accept(connection, object);
             Pooling.free(object);
@@ -343,6 +505,7 @@ public class Net{
         serverProvider = null;
         server = false;
         active = false;
+        clearBatches();
     }
 
     public static void http(String url, String method, Consumer<String> listener, Consumer<Throwable> failure){
@@ -379,7 +542,8 @@ public class Net{
         /**Connect to a server.*/
         void connect(String ip, int port, Runnable success) throws IOException;
 
-        /**Send an object to the server.*/
+        /**Send an object to the server. The object is serialized before this returns, and is reused by the caller
+         * afterwards, so it must not be freed into a pool.*/
         void send(Object object, SendMode mode);
 
         /**Update the ping. Should be done every second or so.*/
@@ -419,7 +583,7 @@ public class Net{
         /**Send an object to everyone connected.*/
         void send(Object object, SendMode mode);
 
-        /**Send an object to a specific client ID.*/
+        /**Send an object to a specific client ID. Like all sent objects, it is reused by the caller and must not be pooled.*/
         void sendTo(int id, Object object, SendMode mode);
 
         /**Send an object to everyone <i>except</i> a client ID.*/
@@ -1,5 +1,6 @@
 package mindustryV4.net;
 
+import mindustryV4.core.NetServer;
 import mindustryV4.net.Net.SendMode;
 
 public abstract class NetConnection{
@@ -10,6 +11,10 @@ public abstract class NetConnection{
     public boolean mobile;
 
     public int lastSentSnapshotID = -1;
+    /**ID of the last snapshot the client has acknowledged, or -1 if a full snapshot is needed.*/
+    public int lastAckedSnapshot = -1;
+    /**Entity state of recently sent snapshots, used as delta baselines.*/
+    public final SnapshotHistory sentSnapshots = new SnapshotHistory(NetServer.snapshotHistory);
 
     /**ID of last recieved client snapshot.*/
     public int lastRecievedClientSnapshot = -1;
@@ -21,277 +21,321 @@ import ucore.util.Bits;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import static mindustryV4.Vars.*;
+import static mindustryV4.core.World.chunkSize;
 
 public class NetworkIO{
 
-    public static void writeWorld(Player player, OutputStream os){
-
-        try(DataOutputStream stream = new DataOutputStream(os)){
-            //--GENERAL STATE--
-            stream.writeByte(state.mode.ordinal()); //gamemode
-            stream.writeUTF(world.getMap().name); //map name
-            stream.writeInt(world.getSector() == null ? invalidSector : world.getSector().packedPosition()); //sector ID
-            stream.writeInt(world.getSector() == null ? 0 : world.getSector().completedMissions);
-
-            //write tags
-            ObjectMap<String, String> tags = world.getMap().meta.tags;
-            stream.writeByte(tags.size);
-            for(Entry<String, String> entry : tags.entries()){
-                stream.writeUTF(entry.key);
-                stream.writeUTF(entry.value);
-            }
+    private static final Deflater deflater = new Deflater();
+    private static final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
 
-            stream.writeInt(state.wave); //wave
-            stream.writeFloat(state.wavetime); //wave countdown
+    /**
+     * Writes one compressed record of a world stream: its length as an int, followed by the deflated data.
+     * World streams consist of the header, all regions and the end, so that clients can load each record as soon as it arrives.
+     */
+    public static byte[] writeRecord(RecordWriter writer){
+        recordBytes.reset();
+        deflater.reset();
 
-            stream.writeInt(player.id);
-            player.write(stream);
+        try{
+            //length placeholder
+            recordBytes.write(new byte[4]);
 
-            //--MAP DATA--
+            DataOutputStream stream = new DataOutputStream(new DeflaterOutputStream(recordBytes, deflater));
+            writer.write(stream);
+            stream.close();
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }
 
-            //map size
-            stream.writeShort(world.width());
-            stream.writeShort(world.height());
+        byte[] bytes = recordBytes.toByteArray();
+        int length = bytes.length - 4;
+        bytes[0] = (byte)(length >>> 24);
+        bytes[1] = (byte)(length >>> 16);
+        bytes[2] = (byte)(length >>> 8);
+        bytes[3] = (byte)length;
+        return bytes;
+    }
 
-            for(int i = 0; i < world.width() * world.height(); i++){
-                Tile tile = world.tile(i);
+    /**Writes the general state and the player joining, followed by the map size and the amount of regions that follow.*/
+    public static void writeWorldHeader(Player player, DataOutputStream stream) throws IOException{
+        //--GENERAL STATE--
+        stream.writeByte(state.mode.ordinal()); //gamemode
+        stream.writeUTF(world.getMap().name); //map name
+        stream.writeInt(world.getSector() == null ? invalidSector : world.getSector().packedPosition()); //sector ID
+        stream.writeInt(world.getSector() == null ? 0 : world.getSector().completedMissions);
+
+        //write tags
+        ObjectMap<String, String> tags = world.getMap().meta.tags;
+        stream.writeByte(tags.size);
+        for(Entry<String, String> entry : tags.entries()){
+            stream.writeUTF(entry.key);
+            stream.writeUTF(entry.value);
+        }
 
-                stream.writeByte(tile.getFloorID());
-                stream.writeByte(tile.getBlockID());
-                stream.writeByte(tile.getElevation());
+        stream.writeInt(state.wave); //wave
+        stream.writeFloat(state.wavetime); //wave countdown
 
-                if(tile.block() instanceof BlockPart){
-                    stream.writeByte(tile.link);
-                }else if(tile.entity != null){
-                    stream.writeByte(Bits.packByte(tile.getTeamID(), tile.getRotation())); //team + rotation
-                    stream.writeShort((short) tile.entity.health); //health
+        stream.writeInt(player.id);
+        player.write(stream);
 
-                    if(tile.entity.items != null) tile.entity.items.write(stream);
-                    if(tile.entity.power != null) tile.entity.power.write(stream);
-                    if(tile.entity.liquids != null) tile.entity.liquids.write(stream);
-                    if(tile.entity.cons != null) tile.entity.cons.write(stream);
+        //map size
+        stream.writeShort(world.width());
+        stream.writeShort(world.height());
+    }
 
-                    tile.entity.writeConfig(stream);
-                    tile.entity.write(stream);
-                }else if(tile.block() == Blocks.air){
-                    int consecutives = 0;
+    /**Writes the tiles and visibility of one region, which is a chunk of the world.*/
+    public static void writeRegion(int region, DataOutputStream stream) throws IOException{
+        int offsetx = region % world.chunksWidth() * chunkSize, offsety = region / world.chunksWidth() * chunkSize;
+        int width = Math.min(chunkSize, world.width() - offsetx), height = Math.min(chunkSize, world.height() - offsety);
 
-                    for(int j = i + 1; j < world.width() * world.height() && consecutives < 255; j++){
-                        Tile nextTile = world.tile(j);
+        stream.writeShort(region);
 
-                        if(nextTile.getFloorID() != tile.getFloorID() || nextTile.block() != Blocks.air || nextTile.getElevation() != tile.getElevation()){
-                            break;
-                        }
+        for(int i = 0; i < width * height; i++){
+            Tile tile = world.tile(offsetx + i % width, offsety + i / width);
 
-                        consecutives++;
-                    }
+            stream.writeByte(tile.getFloorID());
+            stream.writeByte(tile.getBlockID());
+            stream.writeByte(tile.getElevation());
 
-                    stream.writeByte(consecutives);
-                    i += consecutives;
-                }
-            }
+            if(tile.block() instanceof BlockPart){
+                stream.writeByte(tile.link);
+            }else if(tile.entity != null){
+                stream.writeByte(Bits.packByte(tile.getTeamID(), tile.getRotation())); //team + rotation
+                stream.writeShort((short) tile.entity.health); //health
 
-            //write visibility, length-run encoded
-            for(int i = 0; i < world.width() * world.height(); i++){
-                Tile tile = world.tile(i);
-                boolean discovered = tile.discovered();
+                if(tile.entity.items != null) tile.entity.items.write(stream);
+                if(tile.entity.power != null) tile.entity.power.write(stream);
+                if(tile.entity.liquids != null) tile.entity.liquids.write(stream);
+                if(tile.entity.cons != null) tile.entity.cons.write(stream);
 
+                tile.entity.writeConfig(stream);
+                tile.entity.write(stream);
+            }else if(tile.block() == Blocks.air){
                 int consecutives = 0;
 
-                for(int j = i + 1; j < world.width() * world.height() && consecutives < 32767*2-1; j++){
-                    Tile nextTile = world.tile(j);
+                for(int j = i + 1; j < width * height && consecutives < 255; j++){
+                    Tile nextTile = world.tile(offsetx + j % width, offsety + j / width);
 
-                    if(nextTile.discovered() != discovered){
+                    if(nextTile.getFloorID() != tile.getFloorID() || nextTile.block() != Blocks.air || nextTile.getElevation() != tile.getElevation()){
                         break;
                     }
 
                     consecutives++;
                 }
 
-                stream.writeBoolean(discovered);
-                stream.writeShort(consecutives);
+                stream.writeByte(consecutives);
                 i += consecutives;
             }
+        }
 
-            stream.write(Team.all.length);
+        //write visibility, length-run encoded
+        for(int i = 0; i < width * height; i++){
+            boolean discovered = world.tile(offsetx + i % width, offsety + i / width).discovered();
 
-            //write team data
-            for(Team team : Team.all){
-                TeamData data = state.teams.get(team);
-                stream.writeByte(team.ordinal());
+            int consecutives = 0;
 
-                stream.writeByte(data.enemies.size());
-                for(Team enemy : data.enemies){
-                    stream.writeByte(enemy.ordinal());
+            for(int j = i + 1; j < width * height; j++){
+                if(world.tile(offsetx + j % width, offsety + j / width).discovered() != discovered){
+                    break;
                 }
 
-                stream.writeByte(data.cores.size);
-                for(Tile tile : data.cores){
-                    stream.writeInt(tile.packedPosition());
-                }
+                consecutives++;
             }
 
-            //now write a snapshot.
-            player.con.viewX = world.width() * tilesize/2f;
-            player.con.viewY = world.height() * tilesize/2f;
-            player.con.viewWidth = world.width() * tilesize;
-            player.con.viewHeight = world.height() * tilesize;
-            netServer.writeSnapshot(player, stream);
-
-        }catch(IOException e){
-            throw new RuntimeException(e);
+            stream.writeBoolean(discovered);
+            stream.writeShort(consecutives);
+            i += consecutives;
         }
     }
 
-    public static void loadWorld(InputStream is){
+    /**Writes team data and the first snapshot for a player. Sent after all regions.*/
+    public static void writeWorldEnd(Player player, DataOutputStream stream) throws IOException{
+        stream.write(Team.all.length);
 
-        Player player = players[0];
+        //write team data
+        for(Team team : Team.all){
+            TeamData data = state.teams.get(team);
+            stream.writeByte(team.ordinal());
 
-        try(DataInputStream stream = new DataInputStream(is)){
-            Timers.clear();
-
-            //general state
-            byte mode = stream.readByte();
-            String map = stream.readUTF();
-            int sector = stream.readInt();
-            int missions = stream.readInt();
-
-            if(sector != invalidSector){
-                world.sectors.createSector(Bits.getLeftShort(sector), Bits.getRightShort(sector));
-                world.setSector(world.sectors.get(sector));
-                world.getSector().completedMissions = missions;
-            }else{
-                world.setSector(null);
+            stream.writeByte(data.enemies.size());
+            for(Team enemy : data.enemies){
+                stream.writeByte(enemy.ordinal());
             }
 
-            ObjectMap<String, String> tags = new ObjectMap<>();
-
-            byte tagSize = stream.readByte();
-            for(int i = 0; i < tagSize; i++){
-                String key = stream.readUTF();
-                String value = stream.readUTF();
-                tags.put(key, value);
+            stream.writeByte(data.cores.size);
+            for(Tile tile : data.cores){
+                stream.writeInt(tile.packedPosition());
             }
+        }
 
-            int wave = stream.readInt();
-            float wavetime = stream.readFloat();
-
-            state.wave = wave;
-            state.wavetime = wavetime;
-            state.mode = GameMode.values()[mode];
-
-            Entities.clear();
-            int id = stream.readInt();
-            player.resetNoAdd();
-            player.read(stream, TimeUtils.millis());
-            player.resetID(id);
-            player.add();
-
-            world.beginMapLoad();
-
-            //map
-            int width = stream.readShort();
-            int height = stream.readShort();
-
-            Map currentMap = new Map(map, new MapMeta(0, new ObjectMap<>(), width, height, null), true, () -> null);
-            currentMap.meta.tags.clear();
-            currentMap.meta.tags.putAll(tags);
-            world.setMap(currentMap);
-
-            Tile[][] tiles = world.createTiles(width, height);
-
-            for(int i = 0; i < width * height; i++){
-                int x = i % width, y = i / width;
-                byte floorid = stream.readByte();
-                byte wallid = stream.readByte();
-                byte elevation = stream.readByte();
-
-                Tile tile = new Tile(x, y, floorid, wallid);
-                tile.setElevation(elevation);
-
-                if(wallid == Blocks.blockpart.id){
-                    tile.link = stream.readByte();
-                }else if(tile.entity != null){
-                    byte tr = stream.readByte();
-                    short health = stream.readShort();
-
-                    byte team = Bits.getLeftByte(tr);
-                    byte rotation = Bits.getRightByte(tr);
-
-                    tile.setTeam(Team.all[team]);
-                    tile.entity.health = health;
-                    tile.setRotation(rotation);
-
-                    if(tile.entity.items != null) tile.entity.items.read(stream);
-                    if(tile.entity.power != null) tile.entity.power.read(stream);
-                    if(tile.entity.liquids != null) tile.entity.liquids.read(stream);
-                    if(tile.entity.cons != null) tile.entity.cons.read(stream);
-
-                    tile.entity.readConfig(stream);
-                    tile.entity.read(stream);
-                }else if(wallid == 0){
-                    int consecutives = stream.readUnsignedByte();
-
-                    for(int j = i + 1; j < i + 1 + consecutives; j++){
-                        int newx = j % width, newy = j / width;
-                        Tile newTile = new Tile(newx, newy, floorid, wallid);
-                        newTile.setElevation(elevation);
-                        tiles[newx][newy] = newTile;
-                    }
+        //now write a snapshot.
+        player.con.viewX = world.width() * tilesize/2f;
+        player.con.viewY = world.height() * tilesize/2f;
+        player.con.viewWidth = world.width() * tilesize;
+        player.con.viewHeight = world.height() * tilesize;
+        netServer.writeSnapshot(player, stream);
+    }
 
-                    i += consecutives;
-                }
+    /**Loads the header of a world stream and starts loading the map.
+     * @return the amount of regions that follow.*/
+    public static int loadWorldHeader(DataInputStream stream) throws IOException{
+        Player player = players[0];
 
-                tiles[x][y] = tile;
-            }
+        Timers.clear();
 
-            for(int i = 0; i < width * height; i++){
-                boolean discovered = stream.readBoolean();
-                int consecutives = stream.readUnsignedShort();
-                if(discovered){
-                    for(int j = i + 1; j < i + 1 + consecutives; j++){
-                        int newx = j % width, newy = j / width;
-                        tiles[newx][newy].setVisibility((byte) 1);
-                    }
-                }
-                i += consecutives;
-            }
+        //general state
+        byte mode = stream.readByte();
+        String map = stream.readUTF();
+        int sector = stream.readInt();
+        int missions = stream.readInt();
 
-            state.teams = new Teams();
+        if(sector != invalidSector){
+            world.sectors.createSector(Bits.getLeftShort(sector), Bits.getRightShort(sector));
+            world.setSector(world.sectors.get(sector));
+            world.getSector().completedMissions = missions;
+        }else{
+            world.setSector(null);
+        }
 
-            byte teams = stream.readByte();
-            for(int i = 0; i < teams; i++){
-                Team team = Team.all[stream.readByte()];
+        ObjectMap<String, String> tags = new ObjectMap<>();
 
-                byte enemies = stream.readByte();
-                Team[] enemyArr = new Team[enemies];
-                for(int j = 0; j < enemies; j++){
-                    enemyArr[j] = Team.all[stream.readByte()];
-                }
+        byte tagSize = stream.readByte();
+        for(int i = 0; i < tagSize; i++){
+            String key = stream.readUTF();
+            String value = stream.readUTF();
+            tags.put(key, value);
+        }
+
+        int wave = stream.readInt();
+        float wavetime = stream.readFloat();
+
+        state.wave = wave;
+        state.wavetime = wavetime;
+        state.mode = GameMode.values()[mode];
+
+        Entities.clear();
+        tileScheduler.clear();
+        int id = stream.readInt();
+        player.resetNoAdd();
+        player.read(stream, TimeUtils.millis());
+        player.resetID(id);
+        player.add();
+
+        world.beginMapLoad();
+
+        //map
+        int width = stream.readShort();
+        int height = stream.readShort();
+
+        Map currentMap = new Map(map, new MapMeta(0, new ObjectMap<>(), width, height, null), true, () -> null);
+        currentMap.meta.tags.clear();
+        currentMap.meta.tags.putAll(tags);
+        world.setMap(currentMap);
 
-                state.teams.add(team, enemyArr);
+        world.createTiles(width, height);
 
-                byte cores = stream.readByte();
+        return world.chunks();
+    }
 
-                for(int j = 0; j < cores; j++){
-                    state.teams.get(team).cores.add(world.tile(stream.readInt()));
+    /**Loads the tiles of one region into the world that is being loaded.*/
+    public static void loadRegion(DataInputStream stream) throws IOException{
+        Tile[][] tiles = world.getTiles();
+        int region = stream.readUnsignedShort();
+        int offsetx = region % world.chunksWidth() * chunkSize, offsety = region / world.chunksWidth() * chunkSize;
+        int width = Math.min(chunkSize, world.width() - offsetx), height = Math.min(chunkSize, world.height() - offsety);
+
+        for(int i = 0; i < width * height; i++){
+            int x = offsetx + i % width, y = offsety + i / width;
+            byte floorid = stream.readByte();
+            byte wallid = stream.readByte();
+            byte elevation = stream.readByte();
+
+            Tile tile = new Tile(x, y, floorid, wallid);
+            tile.setElevation(elevation);
+
+            if(wallid == Blocks.blockpart.id){
+                tile.link = stream.readByte();
+            }else if(tile.entity != null){
+                byte tr = stream.readByte();
+                short health = stream.readShort();
+
+                byte team = Bits.getLeftByte(tr);
+                byte rotation = Bits.getRightByte(tr);
+
+                tile.setTeam(Team.all[team]);
+                tile.entity.health = health;
+                tile.setRotation(rotation);
+
+                if(tile.entity.items != null) tile.entity.items.read(stream);
+                if(tile.entity.power != null) tile.entity.power.read(stream);
+                if(tile.entity.liquids != null) tile.entity.liquids.read(stream);
+                if(tile.entity.cons != null) tile.entity.cons.read(stream);
+
+                tile.entity.readConfig(stream);
+                tile.entity.read(stream);
+            }else if(wallid == 0){
+                int consecutives = stream.readUnsignedByte();
+
+                for(int j = i + 1; j < i + 1 + consecutives; j++){
+                    int newx = offsetx + j % width, newy = offsety + j / width;
+                    Tile newTile = new Tile(newx, newy, floorid, wallid);
+                    newTile.setElevation(elevation);
+                    tiles[newx][newy] = newTile;
                 }
 
-                if(team == players[0].getTeam() && cores > 0){
-                    Core.camera.position.set(state.teams.get(team).cores.first().drawx(), state.teams.get(team).cores.first().drawy(), 0);
+                i += consecutives;
+            }
+
+            tiles[x][y] = tile;
+        }
+
+        for(int i = 0; i < width * height; i++){
+            boolean discovered = stream.readBoolean();
+            int consecutives = stream.readUnsignedShort();
+            if(discovered){
+                for(int j = i; j < i + 1 + consecutives; j++){
+                    tiles[offsetx + j % width][offsety + j / width].setVisibility((byte) 1);
                 }
             }
+            i += consecutives;
+        }
+    }
+
+    /**Loads team data and the first snapshot, and finishes loading the map.*/
+    public static void loadWorldEnd(DataInputStream stream) throws IOException{
+        state.teams = new Teams();
+
+        byte teams = stream.readByte();
+        for(int i = 0; i < teams; i++){
+            Team team = Team.all[stream.readByte()];
+
+            byte enemies = stream.readByte();
+            Team[] enemyArr = new Team[enemies];
+            for(int j = 0; j < enemies; j++){
+                enemyArr[j] = Team.all[stream.readByte()];
+            }
 
-            world.endMapLoad();
+            state.teams.add(team, enemyArr);
 
-            //read raw snapshot
-            netClient.readSnapshot(stream);
+            byte cores = stream.readByte();
 
-        }catch(IOException e){
-            throw new RuntimeException(e);
+            for(int j = 0; j < cores; j++){
+                state.teams.get(team).cores.add(world.tile(stream.readInt()));
+            }
+
+            if(team == players[0].getTeam() && cores > 0){
+                Core.camera.position.set(state.teams.get(team).cores.first().drawx(), state.teams.get(team).cores.first().drawy(), 0);
+            }
         }
+
+        world.endMapLoad();
+
+        //read raw snapshot
+        netClient.readSnapshot(stream);
     }
 
     public static ByteBuffer writeServerData(){
@@ -341,4 +385,8 @@ public class NetworkIO{
 
         return new Host(host, hostAddress, map, wave, players, version, vertype);
     }
+
+    public interface RecordWriter{
+        void write(DataOutputStream stream) throws IOException;
+    }
 }
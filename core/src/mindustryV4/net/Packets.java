@@ -96,8 +96,13 @@ public class Packets{
     }
 
     public static class InvokePacket implements Packet{
+        /**Initial capacity of the buffers that recieved calls are copied into.*/
+        private static final int initialCapacity = 128;
+
         public byte type, priority;
 
+        /**Buffer holding the call arguments. When sending, this is the caller's buffer;
+         * when recieving, it is owned by this packet and reused whenever the packet is pooled.*/
         public ByteBuffer writeBuffer;
         public int writeLength;
 
@@ -106,9 +111,18 @@ public class Packets{
             type = buffer.get();
             priority = buffer.get();
             writeLength = buffer.getShort();
-            byte[] bytes = new byte[writeLength];
-            buffer.get(bytes);
-            writeBuffer = ByteBuffer.wrap(bytes);
+
+            if(writeBuffer == null || writeBuffer.capacity() < writeLength){
+                writeBuffer = ByteBuffer.allocateDirect(Math.max(writeLength, initialCapacity));
+            }
+
+            //bulk copy, since the source buffer is reused for the next packet before this one is handled
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + writeLength);
+            writeBuffer.clear();
+            writeBuffer.put(buffer);
+            writeBuffer.flip();
+            buffer.limit(limit);
         }
 
         @Override
@@ -118,9 +132,9 @@ public class Packets{
             buffer.putShort((short) writeLength);
 
             writeBuffer.position(0);
-            for(int i = 0; i < writeLength; i++){
-                buffer.put(writeBuffer.get());
-            }
+            writeBuffer.limit(writeLength);
+            buffer.put(writeBuffer);
+            writeBuffer.limit(writeBuffer.capacity());
         }
 
         @Override
@@ -139,6 +153,43 @@ public class Packets{
         }
     }
 
+    /**Several invoke packets sent to the same connection in one update, written back to back.*/
+    public static class InvokeBatchPacket implements Packet{
+        private static final int initialCapacity = 512;
+
+        /**Packet data, from position to limit. When recieving, this buffer is owned by the packet and reused.*/
+        public ByteBuffer data;
+
+        @Override
+        public void read(ByteBuffer buffer){
+            int length = buffer.getShort();
+
+            if(data == null || data.capacity() < length){
+                data = ByteBuffer.allocateDirect(Math.max(length, initialCapacity));
+            }
+
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + length);
+            data.clear();
+            data.put(buffer);
+            data.flip();
+            buffer.limit(limit);
+        }
+
+        @Override
+        public void write(ByteBuffer buffer){
+            int position = data.position();
+            buffer.putShort((short) data.remaining());
+            buffer.put(data);
+            data.position(position);
+        }
+
+        @Override
+        public boolean isImportant(){
+            return true;
+        }
+    }
+
     /**Marks the beginning of a stream.*/
     public static class StreamBegin implements Packet{
         private static int lastid;
@@ -0,0 +1,35 @@
+package mindustryV4.net;
+
+/**Ring buffer of the most recent entity snapshots, looked up by snapshot ID.*/
+public class SnapshotHistory{
+    private final EntitySnapshot[] snapshots;
+
+    public SnapshotHistory(int size){
+        snapshots = new EntitySnapshot[size];
+        for(int i = 0; i < size; i++){
+            snapshots[i] = new EntitySnapshot();
+        }
+    }
+
+    /**@return the stored snapshot with this ID, or null if it was never stored or has been replaced.*/
+    public EntitySnapshot get(int id){
+        if(id < 0) return null;
+        EntitySnapshot snapshot = snapshots[id % snapshots.length];
+        return snapshot.id == id ? snapshot : null;
+    }
+
+    /**Stores a snapshot in the slot of its ID.
+     * @return the snapshot that previously occupied that slot, which may be reused.*/
+    public EntitySnapshot put(EntitySnapshot snapshot){
+        int index = snapshot.id % snapshots.length;
+        EntitySnapshot last = snapshots[index];
+        snapshots[index] = snapshot;
+        return last;
+    }
+
+    public void clear(){
+        for(EntitySnapshot snapshot : snapshots){
+            snapshot.clear(-1);
+        }
+    }
+}
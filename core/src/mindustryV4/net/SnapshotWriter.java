@@ -0,0 +1,219 @@
+package mindustryV4.net;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.IntArray;
+import mindustryV4.game.Team;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Queue;
+
+/**
+ * Writes and compresses the snapshots of a single connection from a shared {@link SyncFrame}.
+ * Every writer has its own buffers, so writers of different connections may run concurrently.
+ */
+public class SnapshotWriter implements Runnable{
+    private final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    private final DataOutputStream data = new DataOutputStream(stream);
+    /**Indices of entries that changed since the baseline in the group being written.*/
+    private final IntArray changed = new IntArray();
+    /**Start and end indices of frame entries that are visible in the group being written.*/
+    private final IntArray runs = new IntArray();
+    private final Rectangle viewport = new Rectangle();
+    /**Reused entity state for the snapshot that is being written.*/
+    private EntitySnapshot next = new EntitySnapshot();
+
+    private NetConnection connection;
+    private SyncFrame frame;
+    private Team team;
+    private int ackedSnapshot;
+    private Queue<SnapshotWriter> finished;
+
+    /**Whether a snapshot has been started and its result was not yet handled. Main thread only.*/
+    public boolean pending;
+    /**ID of the connection the last snapshot was written for.*/
+    public int connectionID;
+    /**ID of the last written snapshot.*/
+    public int snapshotID;
+    /**Compressed snapshot bytes, or null if writing failed.*/
+    public byte[] bytes;
+    public int uncompressedLength;
+    /**Exception thrown while writing, if any.*/
+    public Throwable error;
+
+    /**Prepares writing the next snapshot of a connection. Must be called on the main thread, before {@link #run()}.
+     * Takes over one reference to the frame.
+     * @param finished queue this writer is added to once done.*/
+    public void begin(NetConnection connection, Team team, SyncFrame frame, Queue<SnapshotWriter> finished){
+        this.connection = connection;
+        this.connectionID = connection.id;
+        this.team = team;
+        this.frame = frame;
+        this.finished = finished;
+        this.ackedSnapshot = connection.lastAckedSnapshot;
+        this.snapshotID = ++connection.lastSentSnapshotID;
+        viewport.setSize(connection.viewWidth, connection.viewHeight).setCenter(connection.viewX, connection.viewY);
+        pending = true;
+        bytes = null;
+        error = null;
+    }
+
+    /**Writes and compresses the snapshot. Safe to call on any thread.*/
+    @Override
+    public void run(){
+        try{
+            //delta against the last acknowledged snapshot; a full snapshot is sent if it is unknown or too old
+            EntitySnapshot base = connection.sentSnapshots.get(ackedSnapshot);
+            next.clear(snapshotID);
+            stream.reset();
+
+            write(frame, team, viewport, data, base, next);
+            data.flush();
+
+            next = connection.sentSnapshots.put(next);
+
+            byte[] raw = stream.toByteArray();
+            uncompressedLength = raw.length;
+            bytes = Net.compressSnapshot(raw);
+        }catch(Throwable t){
+            error = t;
+        }finally{
+            frame.release();
+            frame = null;
+            finished.add(this);
+        }
+    }
+
+    /**Writes a snapshot for a single viewer.
+     * @param base the entity state the client has acknowledged, or null to write every entity.
+     * @param current the state to record the written entities in; must be cleared beforehand.*/
+    public void write(SyncFrame frame, Team team, Rectangle viewport, DataOutputStream stream, EntitySnapshot base, EntitySnapshot current) throws IOException{
+        EntitySnapshot entities = frame.entities;
+
+        //write wave datas
+        stream.writeFloat(frame.wavetime);
+        stream.writeInt(frame.wave);
+        stream.writeInt(frame.enemies);
+
+        //write all core inventory data
+        frame.writeCores(team, stream);
+
+        //write timestamp
+        stream.writeLong(frame.timestamp);
+
+        //write ID of the baseline this snapshot is relative to
+        stream.writeInt(base == null ? -1 : base.id);
+
+        int totalGroups = 0;
+
+        for(int g = 0; g < frame.groups.size; g++){
+            if(frame.synced.get(g) || (base != null && base.contains(frame.groups.get(g)))) totalGroups++;
+        }
+
+        //write total amount of serializable groups
+        stream.writeByte(totalGroups);
+
+        for(int g = 0; g < frame.groups.size; g++){
+            int group = frame.groups.get(g);
+            if(!frame.synced.get(g) && (base == null || !base.contains(group))) continue;
+
+            runs.clear();
+            changed.clear();
+
+            //find runs of visible entries; whole cells are taken when the viewport covers them
+            if(frame.clipped.get(g)){
+                int minx = frame.cellX(viewport.x), maxx = frame.cellX(viewport.x + viewport.width);
+                int miny = frame.cellY(viewport.y), maxy = frame.cellY(viewport.y + viewport.height);
+
+                for(int cy = miny; cy <= maxy; cy++){
+                    for(int cx = minx; cx <= maxx; cx++){
+                        int cell = cx + cy * frame.gridWidth;
+                        int start = frame.cellStart(g, cell), end = frame.cellStart(g, cell + 1);
+
+                        //border cells also hold entities outside of the world, so they are always checked
+                        boolean covered = cx > 0 && cy > 0 && cx < frame.gridWidth - 1 && cy < frame.gridHeight - 1
+                            && viewport.contains(cx * SyncFrame.cellSize, cy * SyncFrame.cellSize)
+                            && viewport.contains((cx + 1) * SyncFrame.cellSize, (cy + 1) * SyncFrame.cellSize);
+
+                        if(covered){
+                            addRun(start, end);
+                        }else{
+                            for(int i = start; i < end; i++){
+                                if(viewport.contains(frame.positions.get(i * 2), frame.positions.get(i * 2 + 1))){
+                                    addRun(i, i + 1);
+                                }
+                            }
+                        }
+                    }
+                }
+            }else{
+                addRun(frame.groupStarts.get(g), frame.groupEnds.get(g));
+            }
+
+            int first = current.size();
+            for(int i = 0; i < runs.size; i += 2){
+                current.addAll(entities, runs.get(i), runs.get(i + 1));
+            }
+
+            //write group ID + changed entity amount
+            stream.writeByte(group);
+
+            if(base == null){
+                //every entry is new, so the precomputed entries are written directly
+                stream.writeShort(current.size() - first);
+
+                for(int i = 0; i < runs.size; i += 2){
+                    frame.writeEntries(stream, runs.get(i), runs.get(i + 1));
+                }
+            }else{
+                //only keep entries that differ from the baseline
+                for(int index = first; index < current.size(); index++){
+                    int baseIndex = base.find(group, current.entity(index));
+                    if(baseIndex == -1 || !current.matches(index, base, baseIndex)){
+                        changed.add(index);
+                    }
+                }
+
+                stream.writeShort(changed.size);
+
+                for(int i = 0; i < changed.size; i++){
+                    int index = changed.get(i);
+                    BitWriter.writeVarInt(stream, current.entity(index)); //write id
+                    BitWriter.writeVarInt(stream, current.length(index)); //write length of type ID + data
+                    stream.write(current.data(), current.offset(index), current.length(index));
+                }
+            }
+
+            //write IDs of baseline entities that are no longer synced
+            int removed = 0;
+            if(base != null){
+                for(int i = 0; i < base.size(); i++){
+                    if(base.group(i) == group && current.find(group, base.entity(i)) == -1) removed++;
+                }
+            }
+
+            stream.writeShort(removed);
+
+            if(removed > 0){
+                for(int i = 0; i < base.size(); i++){
+                    if(base.group(i) == group && current.find(group, base.entity(i)) == -1){
+                        BitWriter.writeVarInt(stream, base.entity(i));
+                    }
+                }
+            }
+        }
+    }
+
+    /**Adds a range of frame entries, merging it with the last range when they are adjacent.*/
+    private void addRun(int start, int end){
+        if(start >= end) return;
+
+        if(runs.size > 0 && runs.peek() == start){
+            runs.set(runs.size - 1, end);
+        }else{
+            runs.add(start);
+            runs.add(end);
+        }
+    }
+}
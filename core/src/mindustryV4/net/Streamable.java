@@ -3,11 +3,13 @@ package mindustryV4.net;
 import mindustryV4.net.Packets.StreamBegin;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 
 public class Streamable implements Packet{
-    public transient ByteArrayInputStream stream;
+    public transient InputStream stream;
+    /**Amount of bytes in the stream.*/
+    public transient int total;
 
     @Override
     public boolean isImportant(){
@@ -18,31 +20,43 @@ public class Streamable implements Packet{
         public final int id;
         public final byte type;
         public final int total;
-        public final ByteArrayOutputStream stream;
+        private byte[] data;
+        private int size;
 
         public StreamBuilder(StreamBegin begin){
             id = begin.id;
             type = begin.type;
             total = begin.total;
-            stream = new ByteArrayOutputStream();
+            data = new byte[Math.max(total, 0)];
         }
 
         public void add(byte[] bytes){
-            try{
-                stream.write(bytes);
-            }catch(IOException e){
-                throw new RuntimeException(e);
+            if(size + bytes.length > data.length){
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + bytes.length));
             }
+            System.arraycopy(bytes, 0, data, size, bytes.length);
+            size += bytes.length;
+        }
+
+        /**@return the bytes recieved so far. Only the first {@link #size()} bytes are valid.*/
+        public byte[] data(){
+            return data;
+        }
+
+        /**@return amount of bytes recieved so far.*/
+        public int size(){
+            return size;
         }
 
         public Streamable build(){
             Streamable s = (Streamable) Registrator.getByID(type).constructor.get();
-            s.stream = new ByteArrayInputStream(stream.toByteArray());
+            s.stream = new ByteArrayInputStream(data, 0, size);
+            s.total = size;
             return s;
         }
 
         public boolean isDone(){
-            return stream.size() >= total;
+            return size >= total;
         }
     }
 }
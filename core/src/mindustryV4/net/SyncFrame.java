@@ -0,0 +1,261 @@
+package mindustryV4.net;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.BooleanArray;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.TimeUtils;
+import mindustryV4.entities.traits.SyncTrait;
+import mindustryV4.game.Team;
+import mindustryV4.world.Tile;
+import ucore.entities.Entities;
+import ucore.entities.EntityGroup;
+import ucore.entities.trait.Entity;
+import ucore.io.ByteBufferOutput;
+import ucore.util.Mathf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static mindustryV4.Vars.*;
+
+/**
+ * Serialized state of every synced entity and team core, captured once on the main thread.
+ * A captured frame is never modified, so snapshot writers on other threads can share it.
+ */
+public class SyncFrame{
+    public float wavetime;
+    public int wave, enemies;
+    public long timestamp;
+
+    /**Type ID and sync data of every synced entity, ordered by group.*/
+    public final EntitySnapshot entities = new EntitySnapshot();
+    /**Position of every entity entry, as x/y pairs.*/
+    public final FloatArray positions = new FloatArray();
+
+    /**ID of every entity group, and the range of entries it occupies.*/
+    public final IntArray groups = new IntArray(), groupStarts = new IntArray(), groupEnds = new IntArray();
+    /**Whether each group currently has synced entities.*/
+    public final BooleanArray synced = new BooleanArray();
+    /**Whether each group is only synced inside the viewport.*/
+    public final BooleanArray clipped = new BooleanArray();
+
+    /**Size of the grid cells that entities of clipped groups are sorted into, in world units.*/
+    public static final int cellSize = 32 * tilesize;
+    /**Size of the cell grid. Entities outside of the world are put in the border cells.*/
+    public int gridWidth, gridHeight;
+    /**For every group, index of its first cell in {@link #cellStarts}, or -1 if it is not clipped.*/
+    public final IntArray groupCells = new IntArray();
+    /**Index of the first entry in every cell of every clipped group, followed by the end of the group's entries.*/
+    public final IntArray cellStarts = new IntArray();
+
+    /**Every entry as written in a full snapshot: entity ID and length as variable-length integers, then type ID and data.*/
+    private byte[] wire = new byte[4096];
+    /**Offset of every entry in {@link #wire}, followed by the total length.*/
+    private final IntArray wireOffsets = new IntArray();
+    private int wireLength;
+
+    /**Serialized core positions and inventories, by team.*/
+    private final ByteArrayOutputStream[] cores = new ByteArrayOutputStream[Team.all.length];
+    private final byte[] coreCounts = new byte[Team.all.length];
+
+    private final ByteBuffer entityBuffer = ByteBuffer.allocate(4096);
+    private final ByteBufferOutput entityOutput = new ByteBufferOutput(entityBuffer);
+    private final Array<SyncTrait> visible = new Array<>(SyncTrait.class), sorted = new Array<>(SyncTrait.class);
+    private final IntArray cells = new IntArray();
+    private int[] cellCounts = {};
+
+    private final AtomicInteger references = new AtomicInteger();
+    private final Queue<SyncFrame> pool;
+
+    /**@param pool the queue this frame is returned to once it is no longer referenced; may be null.*/
+    public SyncFrame(Queue<SyncFrame> pool){
+        this.pool = pool;
+        for(int i = 0; i < cores.length; i++){
+            cores[i] = new ByteArrayOutputStream();
+        }
+    }
+
+    /**Captures the current game state. Main thread only. Sets the reference count to one.*/
+    public void capture() throws IOException{
+        wavetime = state.wavetime;
+        wave = state.wave;
+        enemies = state.enemies();
+        timestamp = TimeUtils.millis();
+
+        for(Team team : Team.all){
+            ByteArrayOutputStream stream = cores[team.ordinal()];
+            DataOutputStream data = new DataOutputStream(stream);
+            stream.reset();
+            coreCounts[team.ordinal()] = 0;
+
+            if(!state.teams.isActive(team)) continue;
+
+            for(Tile tile : state.teams.get(team).cores){
+                data.writeInt(tile.packedPosition());
+                tile.entity.items.write(data);
+                coreCounts[team.ordinal()]++;
+            }
+        }
+
+        entities.clear(-1);
+        positions.clear();
+        groups.clear();
+        groupStarts.clear();
+        groupEnds.clear();
+        synced.clear();
+        clipped.clear();
+        groupCells.clear();
+        cellStarts.clear();
+        wireOffsets.clear();
+        wireLength = 0;
+
+        gridWidth = world.width() * tilesize / cellSize + 1;
+        gridHeight = world.height() * tilesize / cellSize + 1;
+
+        for(EntityGroup<?> group : Entities.getAllGroups()){
+            boolean isSynced = !group.isEmpty() && group.all().get(0) instanceof SyncTrait;
+            //clipping is done by representatives
+            boolean isClipped = isSynced && ((SyncTrait) group.all().get(0)).isClipped();
+
+            groups.add(group.getID());
+            groupStarts.add(entities.size());
+            synced.add(isSynced);
+            clipped.add(isClipped);
+            groupCells.add(isClipped ? cellStarts.size : -1);
+
+            if(isSynced){
+                //make sure mapping is enabled for this group
+                if(!group.mappingEnabled()){
+                    throw new RuntimeException("Entity group '" + group.getType() + "' contains SyncTrait entities, yet mapping is not enabled. In order for syncing to work, you must enable mapping for this group.");
+                }
+
+                if(isClipped){
+                    addClipped(group);
+                }else{
+                    for(Entity entity : group.all()){
+                        if(((SyncTrait) entity).isSyncing()){
+                            add(group.getID(), (SyncTrait) entity);
+                        }
+                    }
+                }
+            }
+
+            groupEnds.add(entities.size());
+        }
+
+        wireOffsets.add(wireLength);
+
+        references.set(1);
+    }
+
+    /**@return index of the first entry in a cell of a clipped group, by group index.*/
+    public int cellStart(int groupIndex, int cell){
+        return cellStarts.get(groupCells.get(groupIndex) + cell);
+    }
+
+    /**@return the cell that contains a position, clamped to the grid.*/
+    public int cellX(float x){
+        return Mathf.clamp((int)(x / cellSize), 0, gridWidth - 1);
+    }
+
+    public int cellY(float y){
+        return Mathf.clamp((int)(y / cellSize), 0, gridHeight - 1);
+    }
+
+    /**Writes a range of entries as they appear in a full snapshot.*/
+    public void writeEntries(DataOutputStream stream, int from, int to) throws IOException{
+        stream.write(wire, wireOffsets.get(from), wireOffsets.get(to) - wireOffsets.get(from));
+    }
+
+    /**Sorts the synced entities of a group by cell, then adds them.*/
+    private void addClipped(EntityGroup<?> group) throws IOException{
+        int totalCells = gridWidth * gridHeight;
+        if(cellCounts.length < totalCells + 1){
+            cellCounts = new int[totalCells + 1];
+        }
+
+        visible.clear();
+        cells.clear();
+
+        for(Entity entity : group.all()){
+            if(!((SyncTrait) entity).isSyncing()) continue;
+            int cell = cellX(entity.getX()) + cellY(entity.getY()) * gridWidth;
+            cells.add(cell);
+            cellCounts[cell + 1]++;
+            visible.add((SyncTrait) entity);
+        }
+
+        //convert counts to cell start offsets
+        int start = entities.size();
+        for(int i = 0; i < totalCells; i++){
+            cellCounts[i + 1] += cellCounts[i];
+            cellStarts.add(start + cellCounts[i]);
+        }
+        cellStarts.add(start + cellCounts[totalCells]);
+
+        //place entities at their cell offsets
+        SyncTrait[] items = sorted.setSize(visible.size);
+        for(int i = 0; i < visible.size; i++){
+            items[cellCounts[cells.get(i)]++] = visible.get(i);
+        }
+
+        Arrays.fill(cellCounts, 0, totalCells + 1, 0);
+
+        for(int i = 0; i < sorted.size; i++){
+            add(group.getID(), items[i]);
+        }
+    }
+
+    private void add(int group, SyncTrait entity) throws IOException{
+        entityBuffer.position(0);
+        entityOutput.writeByte(entity.getTypeID()); //write type ID
+        entity.write(entityOutput); //write entity
+        int length = entityBuffer.position();
+
+        entities.add(group, entity.getID(), entityBuffer.array(), 0, length);
+        positions.add(entity.getX());
+        positions.add(entity.getY());
+
+        //entity ID + length of type ID and data, followed by the data
+        if(wireLength + length + 10 > wire.length){
+            wire = Arrays.copyOf(wire, Math.max(wire.length * 2, wireLength + length + 10));
+        }
+        wireOffsets.add(wireLength);
+        putVarInt(entity.getID());
+        putVarInt(length);
+        System.arraycopy(entityBuffer.array(), 0, wire, wireLength, length);
+        wireLength += length;
+    }
+
+    /**Writes an integer to the wire entries, as {@link BitWriter#writeVarInt(java.io.DataOutput, int)} does.*/
+    private void putVarInt(int value){
+        while((value & ~0x7f) != 0){
+            wire[wireLength++] = (byte)((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        wire[wireLength++] = (byte)value;
+    }
+
+    /**Writes the amount of cores of a team, followed by their positions and inventories.*/
+    public void writeCores(Team team, DataOutputStream stream) throws IOException{
+        stream.writeByte(coreCounts[team.ordinal()]);
+        cores[team.ordinal()].writeTo(stream);
+    }
+
+    public void retain(){
+        references.incrementAndGet();
+    }
+
+    /**Releases a reference. Once none are left, the frame is returned to its pool.*/
+    public void release(){
+        if(references.decrementAndGet() == 0 && pool != null){
+            pool.add(this);
+        }
+    }
+}
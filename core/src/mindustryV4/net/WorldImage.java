@@ -0,0 +1,99 @@
+package mindustryV4.net;
+
+import mindustryV4.core.World;
+
+import java.util.Arrays;
+
+import static mindustryV4.Vars.*;
+
+/**
+ * Compressed regions of the world, as sent to joining players.
+ * Each region is a chunk of the world, and a complete record of the world stream, so the regions are shared by all players
+ * that join while they are valid, and only the header and end of the stream are written per player.
+ * <p>
+ * Regions are compressed again when the version of their chunk changed, which happens when tiles change, entities are damaged
+ * or sleeping entities wake up. Regions with awake entities change every tick, so they are only reused within the same tick.
+ */
+public class WorldImage{
+    private byte[][] regions = {};
+    /**Chunk version and tick of every region when it was compressed.*/
+    private int[] versions = {};
+    private long[] ticks = {};
+    /**Whether every region had awake entities when it was compressed.*/
+    private boolean[] active = {};
+    private int width, height, size;
+
+    /**Compresses all regions that changed since they were last compressed.
+     * @return amount of regions that were compressed.*/
+    public int update(long tick){
+        if(width != world.width() || height != world.height() || regions.length != world.chunks()){
+            width = world.width();
+            height = world.height();
+            regions = new byte[world.chunks()][];
+            versions = new int[regions.length];
+            ticks = new long[regions.length];
+            active = new boolean[regions.length];
+        }
+
+        int compressed = 0;
+        size = 0;
+
+        for(int i = 0; i < regions.length; i++){
+            int version = world.chunkVersion(i);
+
+            if(regions[i] == null || versions[i] != version || (active[i] && ticks[i] != tick)){
+                int region = i;
+                regions[i] = NetworkIO.writeRecord(stream -> NetworkIO.writeRegion(region, stream));
+                versions[i] = version;
+                ticks[i] = tick;
+                active[i] = world.hasAwakeEntities(i);
+                compressed++;
+            }
+
+            size += regions[i].length;
+        }
+
+        return compressed;
+    }
+
+    /**Removes all regions.*/
+    public void clear(){
+        regions = new byte[0][];
+        width = height = size = 0;
+    }
+
+    public int regions(){
+        return regions.length;
+    }
+
+    /**@return the record of a region. Must not be modified; regions that are compressed again are replaced.*/
+    public byte[] region(int index){
+        return regions[index];
+    }
+
+    /**@return total size of all region records, in bytes.*/
+    public int size(){
+        return size;
+    }
+
+    /**@return indices of all regions, closest to the specified position in world units first.*/
+    public int[] order(float x, float y){
+        long[] keys = new long[regions.length];
+        int regionsWidth = world.chunksWidth();
+        float regionSize = World.chunkSize * tilesize;
+
+        for(int i = 0; i < keys.length; i++){
+            float dx = (i % regionsWidth + 0.5f) * regionSize - x, dy = (i / regionsWidth + 0.5f) * regionSize - y;
+            //bits of positive floats sort like their values
+            keys[i] = (long) Float.floatToIntBits(dx * dx + dy * dy) << 32 | i;
+        }
+
+        Arrays.sort(keys);
+
+        int[] order = new int[keys.length];
+        for(int i = 0; i < keys.length; i++){
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+}
@@ -0,0 +1,66 @@
+package mindustryV4.net;
+
+import mindustryV4.net.Streamable.StreamBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Loads a world stream while it is being recieved.
+ * Every record is loaded as soon as all of its bytes have arrived, so decompression and loading overlap with the transfer.
+ */
+public class WorldStreamReader{
+    private final Inflater inflater = new Inflater();
+    private int stream = -1, position, regions, loaded;
+    private boolean done;
+
+    /**Loads all records of the stream that are complete and have not been loaded yet.
+     * @return amount of records that were loaded.*/
+    public int read(StreamBuilder builder){
+        if(builder.id != stream){
+            stream = builder.id;
+            position = 0;
+            regions = -1;
+            loaded = 0;
+            done = false;
+        }
+
+        byte[] data = builder.data();
+        int read = 0;
+
+        try{
+            while(!done && builder.size() - position >= 4){
+                int length = (data[position] & 0xff) << 24 | (data[position + 1] & 0xff) << 16 | (data[position + 2] & 0xff) << 8 | (data[position + 3] & 0xff);
+                if(builder.size() - position - 4 < length) break;
+
+                inflater.reset();
+                DataInputStream input = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data, position + 4, length), inflater));
+
+                if(regions == -1){
+                    regions = NetworkIO.loadWorldHeader(input);
+                }else if(loaded < regions){
+                    NetworkIO.loadRegion(input);
+                    loaded++;
+                }else{
+                    NetworkIO.loadWorldEnd(input);
+                    done = true;
+                }
+
+                position += 4 + length;
+                read++;
+            }
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }
+
+        return read;
+    }
+
+    /**@return whether the whole world of the last stream has been loaded.*/
+    public boolean isDone(){
+        return done;
+    }
+}
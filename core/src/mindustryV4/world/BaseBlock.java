@@ -80,6 +80,7 @@ public abstract class BaseBlock extends MappableContent{
     }
 
     public void handleItem(Item item, Tile tile, Tile source){
+        tile.entity.noSleep();
         tile.entity.items.add(item, 1);
     }
 
@@ -95,6 +96,7 @@ public abstract class BaseBlock extends MappableContent{
     }
 
     public void handleLiquid(Tile tile, Tile source, Liquid liquid, float amount){
+        tile.entity.noSleep();
         tile.entity.liquids.add(liquid, amount);
     }
 
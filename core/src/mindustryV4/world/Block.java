@@ -79,6 +79,8 @@ public class Block extends BaseBlock {
     public boolean alwaysReplace = false;
     /** whether this block has instant transfer checking. used for calculations to prevent infinite loops. */
     public boolean instantTransfer = false;
+    /** whether update, acceptItem and handleItem only touch this tile and its direct neighbours, so the block can be updated on a worker thread. */
+    public boolean concurrentUpdate = false;
     /** The block group. Unless {@link #canReplace} is overriden, blocks in the same group can replace each other. */
     public BlockGroup group = BlockGroup.none;
     /** list of displayed block status bars. Defaults to health bar. */
@@ -2,7 +2,6 @@ package mindustryV4.world.blocks.distribution;
 
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.utils.Array;
-import com.badlogic.gdx.utils.LongArray;
 import mindustryV4.entities.TileEntity;
 import mindustryV4.entities.Unit;
 import mindustryV4.graphics.Layer;
@@ -26,9 +25,7 @@ public class Conveyor extends Block{
     private static final float itemSpace = 0.135f * 2.2f;
     private static final float offsetScl = 128f * 3f;
     private static final float minmove = 1f / (Short.MAX_VALUE - 2);
-    private static ItemPos drawpos = new ItemPos();
-    private static ItemPos pos1 = new ItemPos();
-    private static ItemPos pos2 = new ItemPos();
+    private static final byte[] writeBytes = new byte[4];
     private final Translator tr1 = new Translator();
     private final Translator tr2 = new Translator();
 
@@ -45,13 +42,13 @@ public class Conveyor extends Block{
         group = BlockGroup.transportation;
         hasItems = true;
         autoSleep = true;
+        concurrentUpdate = true;
         itemCapacity = 4;
     }
 
-    private static int compareItems(long a, long b){
-        pos1.set(a, ItemPos.packShorts);
-        pos2.set(b, ItemPos.packShorts);
-        return Float.compare(pos1.y, pos2.y);
+    /**@return a pseudo-random seed for an inserted item. Does not use the shared generator, so results do not depend on update order.*/
+    private static byte nextSeed(Tile tile, ConveyorEntity entity){
+        return (byte)((tile.packedPosition() + entity.inserted++) * 0x9E3779B9 >>> 24);
     }
 
     @Override
@@ -106,6 +103,8 @@ public class Conveyor extends Block{
         super.onProximityUpdate(tile);
 
         ConveyorEntity entity = tile.entity();
+        //the block in front may have changed, so a backed up belt may be able to move again
+        entity.noSleep();
         entity.blendbits = 0;
         entity.blendsclx = entity.blendscly = 1;
         entity.blendshadowrot = -1;
@@ -153,17 +152,15 @@ public class Conveyor extends Block{
 
         try{
 
-            for(int i = 0; i < entity.convey.size; i++){
-                ItemPos pos = drawpos.set(entity.convey.get(i), ItemPos.drawShorts);
-
-                if(pos.item == null) continue;
+            for(int i = 0; i < entity.size; i++){
+                int index = entity.index(i);
 
                 tr1.trns(rotation * 90, tilesize, 0);
-                tr2.trns(rotation * 90, -tilesize / 2f, pos.x * tilesize / 2f);
+                tr2.trns(rotation * 90, -tilesize / 2f, entity.xs[index] * tilesize / 2f);
 
-                Draw.rect(pos.item.region,
-                        (int) (tile.x * tilesize + tr1.x * pos.y + tr2.x),
-                        (int) (tile.y * tilesize + tr1.y * pos.y + tr2.y), itemSize, itemSize);
+                Draw.rect(content.item(entity.ids[index]).region,
+                        (int) (tile.x * tilesize + tr1.x * entity.ys[index] + tr2.x),
+                        (int) (tile.y * tilesize + tr1.y * entity.ys[index] + tr2.y), itemSize, itemSize);
             }
 
         }catch(IndexOutOfBoundsException e){
@@ -192,7 +189,7 @@ public class Conveyor extends Block{
             if(Math.abs(tile.worldx() - unit.x) < 1f) centerx = 0f;
         }
 
-        if(entity.convey.size * itemSpace < 0.9f){
+        if(entity.size * itemSpace < 0.9f){
             unit.getVelocity().add((tx * speed + centerx) * entity.delta(), (ty * speed + centery) * entity.delta());
         }
     }
@@ -204,52 +201,47 @@ public class Conveyor extends Block{
         entity.minitem = 1f;
 
         int minremove = Integer.MAX_VALUE;
+        int mask = entity.ids.length - 1;
+        float move = speed * entity.delta();
+        boolean moved = false, blocked = false;
 
-        for(int i = entity.convey.size - 1; i >= 0; i--){
-            long value = entity.convey.get(i);
-            ItemPos pos = pos1.set(value, ItemPos.updateShorts);
-
-            //..this should never happen, but in case it does, remove it and stop here
-            if(pos.item == null){
-                entity.convey.removeValue(value);
-                break;
-            }
+        for(int i = entity.size - 1; i >= 0; i--){
+            int index = (entity.head + i) & mask;
+            float x = entity.xs[index], y = entity.ys[index];
 
-            float nextpos = (i == entity.convey.size - 1 ? 100f : pos2.set(entity.convey.get(i + 1), ItemPos.updateShorts).y) - itemSpace;
-            float maxmove = Math.min(nextpos - pos.y, speed * entity.delta());
+            float nextpos = (i == entity.size - 1 ? 100f : entity.ys[(index + 1) & mask]) - itemSpace;
+            float maxmove = Math.min(nextpos - y, move);
 
             if(maxmove > minmove){
-                pos.y += maxmove;
-                if(Mathf.in(pos.x, 0, 0.1f)){
-                    pos.x = 0f;
+                moved = true;
+                y += maxmove;
+                if(Mathf.in(x, 0, 0.1f)){
+                    x = 0f;
                 }
-                pos.x = Mathf.lerpDelta(pos.x, 0, 0.1f);
+                x = Mathf.lerpDelta(x, 0, 0.1f);
             }else{
-                pos.x = Mathf.lerpDelta(pos.x, pos.seed / offsetScl, 0.1f);
+                x = Mathf.lerpDelta(x, entity.seeds[index] / offsetScl, 0.1f);
             }
 
-            pos.y = Mathf.clamp(pos.y);
+            y = Mathf.clamp(y);
 
-            if(pos.y >= 0.9999f && offloadDir(tile, pos.item)){
+            Item item = content.item(entity.ids[index]);
+
+            if(y >= 0.9999f && offloadDir(tile, item)){
                 Tile next = tile.getNearby(tile.getRotation());
-                if(next.block() instanceof Conveyor){
+                if(next.block() instanceof Conveyor && next.getRotation() == tile.getRotation()){
                     ConveyorEntity othere = next.entity();
-
-                    ItemPos ni = pos2.set(othere.convey.get(othere.lastInserted), ItemPos.updateShorts);
-
-                    if(next.getRotation() == tile.getRotation()){
-                        ni.x = pos.x;
-                    }
-                    othere.convey.set(othere.lastInserted, ni.pack());
+                    othere.xs[othere.index(othere.lastInserted)] = x;
                 }
                 minremove = Math.min(i, minremove);
-                tile.entity.items.remove(pos.item, 1);
+                tile.entity.items.remove(item, 1);
+                moved = true;
             }else{
-                value = pos.pack();
-
-                if(pos.y < entity.minitem)
-                    entity.minitem = pos.y;
-                entity.convey.set(i, value);
+                blocked |= y >= 0.9999f;
+                if(y < entity.minitem)
+                    entity.minitem = y;
+                entity.xs[index] = x;
+                entity.ys[index] = y;
             }
         }
 
@@ -259,13 +251,36 @@ public class Conveyor extends Block{
             entity.clogHeat = Mathf.lerpDelta(entity.clogHeat, 0f, 1f);
         }
 
-        if(entity.items.total() == 0){
+        Tile next = tile.getNearby(tile.getRotation());
+        //a belt that is backed up by the belt in front of it sleeps until that belt makes room
+        boolean waiting = blocked && !moved && next != null && next.block() instanceof Conveyor;
+
+        if(waiting){
+            next.<ConveyorEntity>entity().feedersWaiting = true;
+        }
+
+        if(entity.items.total() == 0 || waiting){
             entity.sleep();
         }else{
             entity.noSleep();
         }
 
-        if(minremove != Integer.MAX_VALUE) entity.convey.truncate(minremove);
+        if(entity.feedersWaiting && entity.minitem > itemSpace){
+            entity.feedersWaiting = false;
+            wakeFeeders(tile);
+        }
+
+        if(minremove != Integer.MAX_VALUE) entity.size = Math.min(entity.size, minremove);
+    }
+
+    /**Wakes up the conveyors that feed into this one.*/
+    private void wakeFeeders(Tile tile){
+        for(int i = 1; i < 4; i++){
+            Tile other = tile.getNearby(Mathf.mod(tile.getRotation() + i, 4));
+            if(other != null && other.block() instanceof Conveyor && other.getNearby(other.getRotation()) == tile){
+                other.entity.noSleep();
+            }
+        }
     }
 
     @Override
@@ -280,11 +295,9 @@ public class Conveyor extends Block{
         int removed = 0;
 
         for(int j = 0; j < amount; j++){
-            for(int i = 0; i < entity.convey.size; i++){
-                long val = entity.convey.get(i);
-                ItemPos pos = pos1.set(val, ItemPos.drawShorts);
-                if(pos.item == item){
-                    entity.convey.removeValue(val);
+            for(int i = 0; i < entity.size; i++){
+                if(entity.ids[entity.index(i)] == item.id){
+                    entity.remove(i);
                     entity.items.remove(item, 1);
                     removed++;
                     break;
@@ -310,8 +323,7 @@ public class Conveyor extends Block{
         ConveyorEntity entity = tile.entity();
 
         for(int i = amount - 1; i >= 0; i--){
-            long result = ItemPos.packItem(item, 0f, i * itemSpace, (byte) Mathf.random(255));
-            entity.convey.insert(0, result);
+            entity.insert(0, item, 0f, i * itemSpace, nextSeed(tile, entity));
             entity.items.add(item, 1);
         }
 
@@ -338,21 +350,21 @@ public class Conveyor extends Block{
 
         ConveyorEntity entity = tile.entity();
         entity.noSleep();
-        long result = ItemPos.packItem(item, y * 0.9f, pos, (byte) Mathf.random(255));
+        byte seed = nextSeed(tile, entity);
 
         tile.entity.items.add(item, 1);
 
-        for(int i = 0; i < entity.convey.size; i++){
-            if(compareItems(result, entity.convey.get(i)) < 0){
-                entity.convey.insert(i, result);
+        for(int i = 0; i < entity.size; i++){
+            if(pos < entity.ys[entity.index(i)]){
+                entity.insert(i, item, y * 0.9f, pos, seed);
                 entity.lastInserted = (byte)i;
                 return;
             }
         }
 
         //this item must be greater than anything there...
-        entity.convey.add(result);
-        entity.lastInserted = (byte)(entity.convey.size-1);
+        entity.insert(entity.size, item, y * 0.9f, pos, seed);
+        entity.lastInserted = (byte)(entity.size-1);
     }
 
     @Override
@@ -372,9 +384,23 @@ public class Conveyor extends Block{
     }
 
     public static class ConveyorEntity extends TileEntity{
+        /**
+         * Items on the belt from back to front, in a ring buffer: item IDs, sideways offsets, positions along the belt and seeds.
+         * The length of the buffer is always a power of two.
+         */
+        byte[] ids = new byte[8];
+        float[] xs = new float[8], ys = new float[8];
+        byte[] seeds = new byte[8];
+        /**Buffer index of the item at the back of the belt.*/
+        int head;
+        /**Amount of items on the belt.*/
+        int size;
 
-        LongArray convey = new LongArray();
         byte lastInserted;
+        /**Whether a conveyor that feeds into this one is waiting for room, and should be woken up once there is.*/
+        boolean feedersWaiting;
+        /**Amount of items inserted so far, used for item seeds.*/
+        int inserted;
         float minitem = 1;
 
         int blendshadowrot = -1;
@@ -383,101 +409,96 @@ public class Conveyor extends Block{
 
         float clogHeat = 0f;
 
-        @Override
-        public void write(DataOutput stream) throws IOException{
-            stream.writeInt(convey.size);
-
-            for(int i = 0; i < convey.size; i++){
-                stream.writeInt(ItemPos.toInt(convey.get(i)));
-            }
+        /**@return the buffer index of the item at the specified position from the back.*/
+        int index(int i){
+            return (head + i) & (ids.length - 1);
         }
 
-        @Override
-        public void read(DataInput stream) throws IOException{
-            convey.clear();
-            int amount = stream.readInt();
-            convey.ensureCapacity(Math.min(amount, 10));
-
-            for(int i = 0; i < amount; i++){
-                convey.add(ItemPos.toLong(stream.readInt()));
+        void insert(int i, Item item, float x, float y, byte seed){
+            if(size == ids.length){
+                grow();
             }
-        }
-    }
 
-    //Container class. Do not instantiate.
-    static class ItemPos{
-        private static short[] writeShort = new short[4];
-        private static byte[] writeByte = new byte[4];
-
-        private static short[] packShorts = new short[4];
-        private static short[] drawShorts = new short[4];
-        private static short[] updateShorts = new short[4];
-
-        Item item;
-        float x, y;
-        byte seed;
+            int mask = ids.length - 1;
+            if(i == 0){
+                head = (head - 1) & mask;
+            }else{
+                for(int j = size; j > i; j--){
+                    move((head + j - 1) & mask, (head + j) & mask);
+                }
+            }
 
-        private ItemPos(){
+            int index = index(i);
+            ids[index] = item.id;
+            xs[index] = x;
+            ys[index] = y;
+            seeds[index] = seed;
+            size++;
         }
 
-        static long packItem(Item item, float x, float y, byte seed){
-            short[] shorts = packShorts;
-            shorts[0] = (short) item.id;
-            shorts[1] = (short) (x * Short.MAX_VALUE);
-            shorts[2] = (short) ((y - 1f) * Short.MAX_VALUE);
-            shorts[3] = seed;
-            return Bits.packLong(shorts);
+        void remove(int i){
+            int mask = ids.length - 1;
+            for(int j = i; j < size - 1; j++){
+                move((head + j + 1) & mask, (head + j) & mask);
+            }
+            size--;
         }
 
-        static int toInt(long value){
-            short[] values = Bits.getShorts(value, writeShort);
-
-            short itemid = values[0];
-            float x = values[1] / (float) Short.MAX_VALUE;
-            float y = ((float) values[2]) / Short.MAX_VALUE + 1f;
-            byte seed = (byte) values[3];
-
-            byte[] bytes = writeByte;
-            bytes[0] = (byte) itemid;
-            bytes[1] = (byte) (x * 127);
-            bytes[2] = (byte) (y * 255 - 128);
-            bytes[3] = seed;
-
-            return Bits.packInt(bytes);
+        private void move(int from, int to){
+            ids[to] = ids[from];
+            xs[to] = xs[from];
+            ys[to] = ys[from];
+            seeds[to] = seeds[from];
         }
 
-        static long toLong(int value){
-            byte[] values = Bits.getBytes(value, writeByte);
-
-            byte itemid = values[0];
-            float x = values[1] / 127f;
-            float y = ((int) values[2] + 128) / 255f;
-            byte seed = values[3];
+        private void grow(){
+            int length = ids.length * 2;
+            byte[] ids = new byte[length];
+            float[] xs = new float[length], ys = new float[length];
+            byte[] seeds = new byte[length];
+
+            for(int i = 0; i < size; i++){
+                int index = index(i);
+                ids[i] = this.ids[index];
+                xs[i] = this.xs[index];
+                ys[i] = this.ys[index];
+                seeds[i] = this.seeds[index];
+            }
 
-            short[] shorts = writeShort;
-            shorts[0] = (short) itemid;
-            shorts[1] = (short) (x * Short.MAX_VALUE);
-            shorts[2] = (short) ((y - 1f) * Short.MAX_VALUE);
-            shorts[3] = seed;
-            return Bits.packLong(shorts);
+            this.ids = ids;
+            this.xs = xs;
+            this.ys = ys;
+            this.seeds = seeds;
+            head = 0;
         }
 
-        ItemPos set(long lvalue, short[] values){
-            Bits.getShorts(lvalue, values);
+        @Override
+        public void write(DataOutput stream) throws IOException{
+            stream.writeInt(size);
+
+            for(int i = 0; i < size; i++){
+                int index = index(i);
+                byte[] bytes = writeBytes;
+                bytes[0] = ids[index];
+                bytes[1] = (byte) (xs[index] * 127);
+                bytes[2] = (byte) (ys[index] * 255 - 128);
+                bytes[3] = seeds[index];
+                stream.writeInt(Bits.packInt(bytes));
+            }
+        }
 
-            if(values[0] >= content.items().size || values[0] < 0)
-                item = null;
-            else
-                item = content.items().get(values[0]);
+        @Override
+        public void read(DataInput stream) throws IOException{
+            head = size = 0;
+            int amount = stream.readInt();
 
-            x = values[1] / (float) Short.MAX_VALUE;
-            y = ((float) values[2]) / Short.MAX_VALUE + 1f;
-            seed = (byte) values[3];
-            return this;
-        }
+            for(int i = 0; i < amount; i++){
+                byte[] values = Bits.getBytes(stream.readInt(), writeBytes);
+                Item item = values[0] >= 0 && values[0] < content.items().size ? content.item(values[0]) : null;
+                if(item == null) continue;
 
-        long pack(){
-            return packItem(item, x, y, seed);
+                insert(size, item, values[1] / 127f, ((int) values[2] + 128) / 255f, values[3]);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -19,6 +19,7 @@ public class Router extends Block{
         update = true;
         hasItems = true;
         itemCapacity = 1;
+        concurrentUpdate = true;
         group = BlockGroup.transportation;
     }
 
@@ -1,11 +1,16 @@
 package mindustryV4.world.blocks.power;
 
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntIntMap;
 import com.badlogic.gdx.utils.IntSet;
 import com.badlogic.gdx.utils.ObjectSet;
 import com.badlogic.gdx.utils.Queue;
 import mindustryV4.world.Tile;
+import mindustryV4.world.modules.PowerModule;
 
+import java.util.Arrays;
+
+import static mindustryV4.Vars.profiler;
 import static mindustryV4.Vars.threads;
 
 public class PowerGraph{
@@ -13,11 +18,22 @@ public class PowerGraph{
     private final static Array<Tile> outArray1 = new Array<>();
     private final static Array<Tile> outArray2 = new Array<>();
     private final static IntSet closedSet = new IntSet();
+    private final static Array<Tile> roots = new Array<>();
+    private final static Array<Search> searches = new Array<>();
+    /**Search that found each tile, by position.*/
+    private final static IntIntMap visited = new IntIntMap();
+    private final static int profileStage = profiler.register("power");
 
     private final ObjectSet<Tile> producers = new ObjectSet<>();
     private final ObjectSet<Tile> consumers = new ObjectSet<>();
     private final ObjectSet<Tile> all = new ObjectSet<>();
 
+    /**Power modules of producers, consumers and buffers, with their amounts and capacities, rebuilt when tiles are added or removed.*/
+    private PowerModule[] producerModules = {}, consumerModules = {}, bufferModules = {};
+    private float[] producerAmounts = {}, consumerAmounts = {}, bufferAmounts = {}, consumerCapacities = {}, bufferCapacities = {};
+    private int producerCount, consumerCount, bufferCount;
+    private boolean dirty;
+
     private long lastFrameUpdated;
     private final int graphID;
     private static int lastGraphID;
@@ -37,32 +53,39 @@ public class PowerGraph{
 
         lastFrameUpdated = threads.getFrameID();
 
-        boolean charge = false;
+        profiler.begin(profileStage);
+        balance();
+        profiler.end(profileStage);
+    }
+
+    private void balance(){
+        if(dirty){
+            rebuild();
+        }
 
+        //copy amounts into the dense arrays; all math below runs on them
         float totalInput = 0f;
-        float bufferInput = 0f;
-        for(Tile producer : producers){
-            if(producer.block().consumesPower){
-                bufferInput += producer.entity.power.amount;
-            }else{
-                totalInput += producer.entity.power.amount;
-            }
+        for(int i = 0; i < producerCount; i++){
+            producerAmounts[i] = producerModules[i].amount;
+            totalInput += producerAmounts[i];
         }
 
-        float maxOutput = 0f;
+        float bufferInput = 0f;
         float bufferOutput = 0f;
-        for(Tile consumer : consumers){
-            if(consumer.block().outputsPower){
-                bufferOutput += consumer.block().powerCapacity - consumer.entity.power.amount;
-            }else{
-                maxOutput += consumer.block().powerCapacity - consumer.entity.power.amount;
-            }
+        for(int i = 0; i < bufferCount; i++){
+            bufferAmounts[i] = bufferModules[i].amount;
+            bufferInput += bufferAmounts[i];
+            bufferOutput += bufferCapacities[i] - bufferAmounts[i];
         }
 
-        if(maxOutput < totalInput){
-            charge = true;
+        float maxOutput = 0f;
+        for(int i = 0; i < consumerCount; i++){
+            consumerAmounts[i] = consumerModules[i].amount;
+            maxOutput += consumerCapacities[i] - consumerAmounts[i];
         }
 
+        boolean charge = maxOutput < totalInput;
+
         if(totalInput + bufferInput <= 0.0001f || maxOutput + bufferOutput <= 0.0001f){
             return;
         }
@@ -75,26 +98,72 @@ public class PowerGraph{
         }
 
         float inputUsed = charge ? Math.min((maxOutput + bufferOutput) / totalInput, 1f) : 1f;
-        for(Tile producer : producers){
-            if(producer.block().consumesPower){
-                if(!charge){
-                    producer.entity.power.amount -= producer.entity.power.amount * bufferUsed;
-                }
-                continue;
+        for(int i = 0; i < producerCount; i++){
+            producerAmounts[i] -= producerAmounts[i] * inputUsed;
+        }
+
+        if(charge){
+            for(int i = 0; i < bufferCount; i++){
+                bufferAmounts[i] += (bufferCapacities[i] - bufferAmounts[i]) * bufferUsed;
+            }
+        }else{
+            for(int i = 0; i < bufferCount; i++){
+                bufferAmounts[i] -= bufferAmounts[i] * bufferUsed;
             }
-            producer.entity.power.amount -= producer.entity.power.amount * inputUsed;
         }
 
         float outputSatisfied = charge ? 1f : Math.min((totalInput + bufferInput) / maxOutput, 1f);
-        for(Tile consumer : consumers){
-            if(consumer.block().outputsPower){
-                if(charge){
-                    consumer.entity.power.amount += (consumer.block().powerCapacity - consumer.entity.power.amount) * bufferUsed;
-                }
-                continue;
+        for(int i = 0; i < consumerCount; i++){
+            consumerAmounts[i] += (consumerCapacities[i] - consumerAmounts[i]) * outputSatisfied;
+        }
+
+        //write results back, as blocks read and change their own amount
+        for(int i = 0; i < producerCount; i++){
+            producerModules[i].amount = producerAmounts[i];
+        }
+        for(int i = 0; i < bufferCount; i++){
+            bufferModules[i].amount = bufferAmounts[i];
+        }
+        for(int i = 0; i < consumerCount; i++){
+            consumerModules[i].amount = consumerAmounts[i];
+        }
+    }
+
+    /**Sorts the power modules of the graph into producers, consumers and buffers, which do both.*/
+    private void rebuild(){
+        producerCount = bufferCount = consumerCount = 0;
+        if(producerModules.length < producers.size){
+            producerModules = new PowerModule[producers.size];
+            producerAmounts = new float[producers.size];
+        }
+        if(consumerModules.length < consumers.size){
+            consumerModules = new PowerModule[consumers.size];
+            consumerAmounts = new float[consumers.size];
+            consumerCapacities = new float[consumers.size];
+        }
+        if(bufferModules.length < consumers.size){
+            bufferModules = new PowerModule[consumers.size];
+            bufferAmounts = new float[consumers.size];
+            bufferCapacities = new float[consumers.size];
+        }
+
+        for(Tile tile : producers){
+            if(!tile.block().consumesPower){
+                producerModules[producerCount++] = tile.entity.power;
+            }
+        }
+
+        for(Tile tile : consumers){
+            if(tile.block().outputsPower){
+                bufferCapacities[bufferCount] = tile.block().powerCapacity;
+                bufferModules[bufferCount++] = tile.entity.power;
+            }else{
+                consumerCapacities[consumerCount] = tile.block().powerCapacity;
+                consumerModules[consumerCount++] = tile.entity.power;
             }
-            consumer.entity.power.amount += (consumer.block().powerCapacity - consumer.entity.power.amount) * outputSatisfied;
         }
+
+        dirty = false;
     }
 
     public void add(PowerGraph graph){
@@ -106,6 +175,7 @@ public class PowerGraph{
     public void add(Tile tile){
         tile.entity.power.graph = this;
         all.add(tile);
+        dirty = true;
 
         if(tile.block().outputsPower){
             producers.add(tile);
@@ -123,6 +193,10 @@ public class PowerGraph{
         all.clear();
         producers.clear();
         consumers.clear();
+        Arrays.fill(producerModules, null);
+        Arrays.fill(consumerModules, null);
+        Arrays.fill(bufferModules, null);
+        dirty = true;
     }
 
     public void reflow(Tile tile){
@@ -142,27 +216,128 @@ public class PowerGraph{
         }
     }
 
+    /**Removes a tile from the graph. If that cuts the graph apart, the parts that were cut off are moved to new graphs.*/
     public void remove(Tile tile){
-        clear();
-        closedSet.clear();
+        removeTile(tile);
+        tile.entity.power.graph = null;
 
+        roots.clear();
         for(Tile other : tile.block().getPowerConnections(tile, outArray1)){
-            if(other.entity.power == null || other.entity.power.graph != null) continue;
-            PowerGraph graph = new PowerGraph();
-            queue.clear();
-            queue.addLast(other);
-            while(queue.size > 0){
-                Tile child = queue.removeFirst();
-                child.entity.power.graph = graph;
-                graph.add(child);
+            if(other.entity.power != null && other.entity.power.graph == this && !roots.contains(other, true)){
+                roots.add(other);
+            }
+        }
+
+        //with one connection left, the rest of the graph stays connected
+        if(roots.size > 1){
+            split(tile);
+        }
+    }
+
+    /**
+     * Searches from every former neighbour of a removed tile at once, one tile per search in turn.
+     * Searches that meet are merged, and a search that runs out of tiles has found a part that was cut off.
+     * This stops as soon as only one search is left running, so the work done depends on the size of the parts that
+     * were cut off, not on the size of the whole graph.
+     */
+    private void split(Tile removed){
+        visited.clear();
+        while(searches.size < roots.size){
+            searches.add(new Search());
+        }
+
+        for(int i = 0; i < roots.size; i++){
+            Search search = searches.get(i);
+            search.parent = i;
+            search.queue.addLast(roots.get(i));
+            search.tiles.add(roots.get(i));
+            visited.put(roots.get(i).packedPosition(), i);
+        }
+
+        int unmerged = roots.size, running = roots.size;
+
+        while(unmerged > 1 && running > 1){
+            for(int i = 0; i < roots.size; i++){
+                Search search = searches.get(i);
+                if(search.parent != i || search.queue.size == 0) continue;
+
+                Tile child = search.queue.removeFirst();
                 for(Tile next : child.block().getPowerConnections(child, outArray2)){
-                    if(next != tile && next.entity.power != null && next.entity.power.graph == null && !closedSet.contains(next.packedPosition())){
-                        queue.addLast(next);
-                        closedSet.add(next.packedPosition());
+                    if(next == removed || next.entity.power == null || next.entity.power.graph != this) continue;
+
+                    int other = visited.get(next.packedPosition(), -1);
+                    if(other == -1){
+                        visited.put(next.packedPosition(), i);
+                        search.queue.addLast(next);
+                        search.tiles.add(next);
+                    }else if((other = find(other)) != i){
+                        //both searches are in the same part; continue with one of them
+                        Search merged = searches.get(other);
+                        merged.parent = i;
+                        while(merged.queue.size > 0){
+                            search.queue.addLast(merged.queue.removeFirst());
+                        }
+                        search.tiles.addAll(merged.tiles);
+                        merged.tiles.clear();
                     }
                 }
             }
+
+            unmerged = running = 0;
+            for(int i = 0; i < roots.size; i++){
+                Search search = searches.get(i);
+                if(search.parent != i) continue;
+                unmerged++;
+                if(search.queue.size > 0) running++;
+            }
+        }
+
+        if(unmerged > 1){
+            //the search that is still running covers the rest of this graph; if all finished, the largest part stays
+            int kept = -1;
+            for(int i = 0; i < roots.size; i++){
+                Search search = searches.get(i);
+                if(search.parent != i) continue;
+                if(kept == -1 || search.queue.size > 0 || (searches.get(kept).queue.size == 0 && search.tiles.size > searches.get(kept).tiles.size)){
+                    kept = i;
+                }
+            }
+
+            for(int i = 0; i < roots.size; i++){
+                Search search = searches.get(i);
+                if(search.parent != i || i == kept) continue;
+
+                PowerGraph graph = new PowerGraph();
+                for(Tile child : search.tiles){
+                    removeTile(child);
+                    graph.add(child);
+                }
+            }
+        }
+
+        for(int i = 0; i < roots.size; i++){
+            searches.get(i).queue.clear();
+            searches.get(i).tiles.clear();
         }
+        visited.clear();
+    }
+
+    private int find(int search){
+        while(searches.get(search).parent != search){
+            search = searches.get(search).parent;
+        }
+        return search;
+    }
+
+    private void removeTile(Tile tile){
+        all.remove(tile);
+        producers.remove(tile);
+        consumers.remove(tile);
+        dirty = true;
+    }
+
+    public int size(){
+        return all.size;
     }
 
     @Override
@@ -175,4 +350,12 @@ public class PowerGraph{
         ", graphID=" + graphID +
         '}';
     }
+
+    /**Breadth-first search through the graph, used to find parts that were cut off.*/
+    private static class Search{
+        final Queue<Tile> queue = new Queue<>();
+        /**Tiles found by this search and the searches merged into it.*/
+        final Array<Tile> tiles = new Array<>();
+        int parent;
+    }
 }
@@ -15,6 +15,7 @@ import ucore.graphics.Draw;
 import ucore.graphics.Fill;
 
 import static mindustryV4.Vars.tilesize;
+import static mindustryV4.Vars.world;
 
 public abstract class StorageBlock extends Block{
 
@@ -119,6 +120,7 @@ public abstract class StorageBlock extends Block{
      */
     public Item removeItem(Tile tile, Item item){
         TileEntity entity = tile.entity;
+        entity.noSleep();
 
         if(item == null){
             return entity.items.take();
@@ -147,5 +149,17 @@ public abstract class StorageBlock extends Block{
 
     public class StorageEntity extends TileEntity{
         public StorageGraph graph = new StorageGraph();
+
+        @Override
+        public void noSleep(){
+            super.noSleep();
+
+            //items are shared by the whole graph, which may span several chunks
+            if(!isAwake()){
+                for(Tile other : graph.getTiles()){
+                    world.markChanged(other);
+                }
+            }
+        }
     }
 }
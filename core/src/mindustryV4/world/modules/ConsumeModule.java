@@ -2,6 +2,7 @@ package mindustryV4.world.modules;
 
 import mindustryV4.entities.TileEntity;
 import mindustryV4.world.consumers.Consume;
+import ucore.util.ThreadArray;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -14,7 +15,10 @@ public class ConsumeModule extends BlockModule{
         boolean prevValid = valid;
         valid = true;
 
-        for(Consume cons : entity.tile.block().consumes.all()){
+        //indexed, as the shared map iterator is not safe to use from several threads
+        ThreadArray<Consume> all = entity.tile.block().consumes.array();
+        for(int i = 0; i < all.size; i++){
+            Consume cons = all.get(i);
             if(cons.isUpdate() && prevValid && entity.tile.block().shouldConsume(entity.tile) && cons.valid(entity.getTile().block(), entity)){
                 cons.update(entity.getTile().block(), entity);
             }
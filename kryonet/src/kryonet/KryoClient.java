@@ -11,7 +11,6 @@ import mindustryV4.net.NetworkIO;
 import mindustryV4.net.Packets.Connect;
 import mindustryV4.net.Packets.Disconnect;
 import ucore.function.Consumer;
-import ucore.util.Pooling;
 import net.jpountz.lz4.LZ4Factory;
 import net.jpountz.lz4.LZ4FastDecompressor;
 
@@ -161,8 +160,6 @@ public class KryoClient implements ClientProvider{
         }else{
             client.sendUDP(object);
         }
-
-        Pooling.free(object);
     }
 
     @Override
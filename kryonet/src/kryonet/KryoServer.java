@@ -24,6 +24,7 @@ import net.jpountz.lz4.LZ4Factory;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedSelectorException;
+import java.util.Arrays;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
 
@@ -182,7 +183,7 @@ public class KryoServer implements ServerProvider {
                     protected void start() {
                         //send an object so the receiving side knows how to handle the following chunks
                         StreamBegin begin = new StreamBegin();
-                        begin.total = stream.stream.available();
+                        begin.total = stream.total;
                         begin.type = Registrator.getID(stream.getClass());
                         connection.connection.sendTCP(begin);
                         id = begin.id;
@@ -198,14 +199,15 @@ public class KryoServer implements ServerProvider {
             } else {
                 int cid;
                 StreamBegin begin = new StreamBegin();
-                begin.total = stream.stream.available();
+                begin.total = stream.total;
                 begin.type = Registrator.getID(stream.getClass());
                 connection.send(begin, SendMode.tcp);
                 cid = begin.id;
 
-                while (stream.stream.available() > 0) {
-                    byte[] bytes = new byte[Math.min(512, stream.stream.available())];
-                    stream.stream.read(bytes);
+                byte[] buffer = new byte[512];
+                int read;
+                while ((read = stream.stream.read(buffer)) > 0) {
+                    byte[] bytes = Arrays.copyOf(buffer, read);
 
                     StreamChunk chunk = new StreamChunk();
                     chunk.id = cid;
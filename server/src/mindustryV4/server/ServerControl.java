@@ -64,9 +64,14 @@ public class ServerControl extends Module{
             "shuffle", true,
             "crashreport", false,
             "port", port,
-            "logging", true
+            "logging", true,
+            "threadedpathing", false,
+            "tilethreads", 0
         );
 
+        world.pathfinder.setThreaded(Settings.getBool("threadedpathing"));
+        tileScheduler.setThreads(Settings.getInt("tilethreads"));
+
         Log.setLogger(new LogHandler(){
             final DateTimeFormatter dateTime = DateTimeFormatter.ofPattern("MM-dd-yyyy | HH:mm:ss");
 
@@ -307,6 +312,7 @@ public class ServerControl extends Module{
 
                 info("  &ly{0} FPS.", (int) (60f / Timers.delta()));
                 info("  &ly{0} MB used.", Gdx.app.getJavaHeap() / 1024 / 1024);
+                info("  &ly{0} active / {1} sleeping tile entities.", tileScheduler.activeCount(), tileScheduler.sleepingCount());
 
                 if(!playerGroup.isEmpty()){
                     info("  &lyPlayers: {0}", playerGroup.size());
@@ -319,6 +325,25 @@ public class ServerControl extends Module{
             }
         });
 
+        handler.register("profile", "[reset]", "Display how long each part of recent ticks took.", arg -> {
+            if(arg.length > 0 && arg[0].equals("reset")){
+                profiler.reset();
+                info("Profiler reset.");
+                return;
+            }
+
+            if(profiler.ticks() == 0){
+                info("No ticks recorded yet.");
+                return;
+            }
+
+            info("Tick timings over the last {0} ticks, in ms (p50 / p99 / max):", profiler.ticks());
+            for(int i = 0; i < profiler.stages(); i++){
+                info("  &ly{0}&lb: &lc{1} &lb/&lc {2} &lb/&lc {3}", profiler.name(i),
+                    millis(profiler.percentile(i, 0.5f)), millis(profiler.percentile(i, 0.99f)), millis(profiler.max(i)));
+            }
+        });
+
         handler.register("say", "<message...>", "Send a message to all players.", arg -> {
             if(!state.is(State.playing)){
                 err("Not hosting. Host a game first.");
@@ -390,6 +415,27 @@ public class ServerControl extends Module{
             info("Logging is now {0}.", value ? "on" : "off");
         });
 
+        handler.register("threadedpathing", "<on/off>", "Disables or enables computing unit pathfinding on a separate thread", arg -> {
+            boolean value = arg[0].equalsIgnoreCase("on");
+            Settings.putBool("threadedpathing", value);
+            Settings.save();
+            world.pathfinder.setThreaded(value);
+            info("Threaded pathfinding is now {0}.", value ? "on" : "off");
+        });
+
+        handler.register("tilethreads", "<amount>", "Sets the amount of threads used to update blocks. 0 updates all blocks on the main thread; any other amount changes the block update order.", arg -> {
+            if(!Strings.canParseInt(arg[0]) || Strings.parseInt(arg[0]) < 0){
+                err("Invalid amount: {0}", arg[0]);
+                return;
+            }
+
+            int value = Strings.parseInt(arg[0]);
+            Settings.putInt("tilethreads", value);
+            Settings.save();
+            tileScheduler.setThreads(value);
+            info("Tile updates now use {0} thread(s).", value);
+        });
+
         handler.register("strict", "<on/off>", "Disables or enables strict mode", arg -> {
            boolean value = arg[0].equalsIgnoreCase("on");
            netServer.admins.setStrict(value);
@@ -771,6 +817,10 @@ public class ServerControl extends Module{
         }
     }
 
+    private String millis(long nanos){
+        return String.format("%.3f", nanos / 1000000.0);
+    }
+
     private void logToFile(String text){
         if(currentLogFile != null && currentLogFile.length() > maxLogLength){
             String date = DateTimeFormatter.ofPattern("MM-dd-yyyy | HH:mm:ss").format(LocalDateTime.now());
@@ -1,45 +1,97 @@
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.backends.headless.HeadlessApplication;
 import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.math.GridPoint2;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.Queue;
 import mindustryV4.Vars;
 import mindustryV4.content.Items;
+import mindustryV4.content.StatusEffects;
 import mindustryV4.content.UnitTypes;
+import mindustryV4.content.bullets.StandardBullets;
 import mindustryV4.content.blocks.Blocks;
 import mindustryV4.content.blocks.CraftingBlocks;
+import mindustryV4.content.blocks.DebugBlocks;
+import mindustryV4.content.blocks.DefenseBlocks;
+import mindustryV4.content.blocks.DistributionBlocks;
 import mindustryV4.content.blocks.PowerBlocks;
 import mindustryV4.content.blocks.StorageBlocks;
 import mindustryV4.core.GameState.State;
 import mindustryV4.core.Logic;
 import mindustryV4.core.NetServer;
 import mindustryV4.core.World;
+import mindustryV4.entities.Player;
+import mindustryV4.entities.TileEntity;
+import mindustryV4.entities.Units;
+import mindustryV4.entities.bullet.Bullet;
+import mindustryV4.entities.bullet.BulletBatch;
+import mindustryV4.entities.traits.SyncTrait;
+import mindustryV4.entities.traits.TypeTrait;
 import mindustryV4.entities.units.BaseUnit;
 import mindustryV4.game.Content;
+import mindustryV4.game.EventType.TileChangeEvent;
 import mindustryV4.game.Team;
 import mindustryV4.io.BundleLoader;
 import mindustryV4.io.SaveIO;
 import mindustryV4.maps.Map;
+import mindustryV4.net.EntitySnapshot;
+import mindustryV4.net.Net.SendMode;
+import mindustryV4.net.NetConnection;
+import mindustryV4.net.NetworkIO;
+import mindustryV4.net.Packets.InvokeBatchPacket;
+import mindustryV4.net.Packets.InvokePacket;
+import mindustryV4.net.WorldImage;
 import mindustryV4.type.Item;
 import mindustryV4.world.Block;
 import mindustryV4.world.Edges;
 import mindustryV4.world.Tile;
+import mindustryV4.world.blocks.defense.Door.DoorEntity;
+import mindustryV4.world.blocks.power.PowerGraph;
+import mindustryV4.world.blocks.distribution.Sorter.SorterEntity;
+import mindustryV4.world.meta.BlockFlag;
+import ucore.core.Events;
 import ucore.core.Timers;
+import ucore.entities.Entities;
+import ucore.entities.EntityGroup;
+import ucore.entities.trait.Entity;
 import ucore.modules.ModuleCore;
+import ucore.util.Bits;
+import ucore.util.Geometry;
 import ucore.util.EmptyLogger;
 import ucore.util.Log;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.InflaterInputStream;
 
 import static mindustryV4.Vars.*;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class ApplicationTests{
+    /**Whether the application was launched by an earlier test class in this JVM.*/
+    private static boolean launched;
 
     @BeforeAll
     static void launchApplication(){
+        if(launched) return;
+        launched = true;
+
         try{
             boolean[] begins = {false};
             Throwable[] exceptionThrown = {null};
@@ -210,6 +262,152 @@ public class ApplicationTests{
         assertEquals(world.height(), map.meta.height);
     }
 
+    @Test
+    void saveSnapshot() throws IOException{
+        world.loadMap(world.maps.all().first());
+        Map map = world.getMap();
+
+        long start = System.nanoTime();
+        SaveIO.saveToSlot(0);
+        long full = System.nanoTime() - start;
+
+        //measure a complete snapshot, not a delta of the save above
+        SaveIO.discardDeltas(0);
+
+        //only capturing the snapshot pauses the game; compressing and writing it happens on the save thread
+        start = System.nanoTime();
+        SaveIO.Snapshot snapshot = SaveIO.snapshot(0);
+        long pause = System.nanoTime() - start;
+
+        SaveIO.writeSnapshot(0, snapshot);
+        assertFalse(SaveIO.fileFor(0).sibling(SaveIO.fileFor(0).name() + ".tmp").exists());
+
+        resetWorld();
+        SaveIO.loadFromSlot(0);
+
+        assertEquals(world.getMap(), map);
+        assertEquals(world.width(), map.meta.width);
+        assertEquals(world.height(), map.meta.height);
+
+        Log.info("Save: {0}ms on the logic thread, {1}ms before.", millis(pause), millis(full));
+    }
+
+    @Test
+    void deltaSaves() throws IOException{
+        world.loadMap(world.maps.all().first());
+        SaveIO.saveToSlot(0);
+
+        Tile tile = null;
+        for(int x = 0; x < world.width() && tile == null; x++){
+            for(int y = 0; y < world.height(); y++){
+                if(world.tile(x, y).block() == Blocks.air){
+                    tile = world.tile(x, y);
+                    break;
+                }
+            }
+        }
+
+        assertNotNull(tile);
+        int x = tile.x, y = tile.y;
+        tile.setBlock(DefenseBlocks.copperWall, Team.blue);
+
+        long start = System.nanoTime();
+        SaveIO.Snapshot snapshot = SaveIO.snapshot(0);
+        long pause = System.nanoTime() - start;
+
+        assertTrue(snapshot.delta);
+        SaveIO.writeSnapshot(0, snapshot);
+
+        FileHandle file = SaveIO.fileFor(0), deltas = SaveIO.deltaFileFor(file);
+        assertTrue(deltas.exists());
+        assertTrue(deltas.length() < file.length());
+        Log.info("Delta save: {0} bytes, {1}ms on the logic thread; full save: {2} bytes.", deltas.length(), millis(pause), file.length());
+
+        resetWorld();
+        SaveIO.loadFromSlot(0);
+        assertEquals(DefenseBlocks.copperWall, world.tile(x, y).block());
+
+        //entities that change while awake and then fall asleep do not change their chunk version, but must still be saved
+        Tile belt = null;
+        for(int bx = world.width() - 1; bx >= 0 && belt == null; bx--){
+            for(int by = world.height() - 1; by >= 0; by--){
+                if(world.tile(bx, by).block() == Blocks.air){
+                    belt = world.tile(bx, by);
+                    break;
+                }
+            }
+        }
+
+        assertNotNull(belt);
+        int beltx = belt.x, belty = belt.y;
+        world.setBlock(belt, DistributionBlocks.conveyor, Team.blue);
+        tileGroup.updateEvents();
+        SaveIO.writeSnapshot(0, SaveIO.snapshot(0));
+
+        belt.entity.health = 10f;
+        for(int i = 0; i < TileEntity.timeToSleep + 1; i++){
+            belt.entity.sleep();
+        }
+        tileScheduler.update();
+        assertFalse(belt.entity.isAwake());
+
+        SaveIO.writeSnapshot(0, SaveIO.snapshot(0));
+
+        resetWorld();
+        SaveIO.loadFromSlot(0);
+        assertEquals(10f, world.tile(beltx, belty).entity.health);
+
+        //segments are merged into the save once there are too many of them
+        for(int i = 0; i < SaveIO.maxSegments && deltas.exists(); i++){
+            SaveIO.writeSnapshot(0, SaveIO.snapshot(0));
+        }
+
+        assertFalse(deltas.exists());
+
+        resetWorld();
+        SaveIO.loadFromSlot(0);
+        assertEquals(DefenseBlocks.copperWall, world.tile(x, y).block());
+        assertEquals(Team.blue, world.tile(x, y).getTeam());
+    }
+
+    @Test
+    void staleSnapshot() throws IOException{
+        world.loadMap(world.maps.all().first());
+        SaveIO.saveToSlot(0);
+
+        Tile tile = null;
+        for(int x = 0; x < world.width() && tile == null; x++){
+            for(int y = 0; y < world.height(); y++){
+                if(world.tile(x, y).block() == Blocks.air){
+                    tile = world.tile(x, y);
+                    break;
+                }
+            }
+        }
+
+        assertNotNull(tile);
+        int x = tile.x, y = tile.y;
+
+        //an autosave that is still being written when the game is saved manually
+        tile.setBlock(DefenseBlocks.copperWall, Team.blue);
+        SaveIO.Snapshot delta = SaveIO.snapshot(0);
+        SaveIO.discardDeltas(0);
+        SaveIO.Snapshot full = SaveIO.snapshot(0);
+        assertTrue(delta.delta);
+        assertFalse(full.delta);
+
+        tile.setBlock(DistributionBlocks.conveyor, Team.blue);
+        SaveIO.saveToSlot(0);
+
+        SaveIO.writeSnapshot(0, delta);
+        SaveIO.writeSnapshot(0, full);
+        assertFalse(SaveIO.deltaFileFor(SaveIO.fileFor(0)).exists());
+
+        resetWorld();
+        SaveIO.loadFromSlot(0);
+        assertEquals(DistributionBlocks.conveyor, world.tile(x, y).block());
+    }
+
     @Test
     void inventoryDeposit(){
         depositTest(CraftingBlocks.smelter, Items.copper);
@@ -229,6 +427,1064 @@ public class ApplicationTests{
         assertEquals(8, edges2.length);
     }
 
+    @Test
+    void pathfinderMatchesReference(){
+        world.sectors.createSector(0, 0);
+        world.loadSector(world.sectors.get(0, 0));
+        checkFlowField(waveTeam);
+
+        world.loadMap(world.maps.all().first());
+        checkFlowField(waveTeam);
+    }
+
+    @Test
+    void pathfinderRepair(){
+        world.loadMap(world.maps.all().first());
+        world.pathfinder.activateTeamPath(waveTeam);
+
+        //pick an open tile roughly halfway along the flow field
+        float max = 0;
+        for(int x = 0; x < world.width(); x++){
+            for(int y = 0; y < world.height(); y++){
+                float value = world.pathfinder.getValueForTeam(waveTeam, x, y);
+                if(value < Float.MAX_VALUE) max = Math.max(max, value);
+            }
+        }
+
+        Tile tile = null;
+        for(int x = 0; x < world.width(); x++){
+            for(int y = 0; y < world.height(); y++){
+                Tile other = world.tile(x, y);
+                float value = world.pathfinder.getValueForTeam(waveTeam, x, y);
+                if(other.block() == Blocks.air && !other.solid() && value < Float.MAX_VALUE &&
+                        (tile == null || Math.abs(value - max / 2f) < Math.abs(world.pathfinder.getValueForTeam(waveTeam, tile.x, tile.y) - max / 2f))){
+                    tile = other;
+                }
+            }
+        }
+
+        assertNotNull(tile);
+
+        //change events are fired manually below, instead of being posted to the application thread
+        world.beginMapLoad();
+
+        long full = touchedByWall(tile, false);
+        setPathBlock(tile, Blocks.air);
+        long incremental = touchedByWall(tile, true);
+
+        Log.info("Tiles touched by one wall placement: {0} re-flooding, {1} repairing.", full, incremental);
+        assertTrue(incremental < full);
+
+        float[][] repaired = new float[world.width()][world.height()];
+        for(int x = 0; x < world.width(); x++){
+            for(int y = 0; y < world.height(); y++){
+                repaired[x][y] = world.pathfinder.getValueForTeam(waveTeam, x, y);
+            }
+        }
+
+        world.pathfinder.activateTeamPath(waveTeam);
+
+        for(int x = 0; x < world.width(); x++){
+            for(int y = 0; y < world.height(); y++){
+                assertEquals(world.pathfinder.getValueForTeam(waveTeam, x, y), repaired[x][y], "Repaired field mismatch at " + x + ", " + y);
+            }
+        }
+
+        setPathBlock(tile, Blocks.air);
+        world.endMapLoad();
+    }
+
+    @Test
+    void pathfinderThreaded(){
+        world.loadMap(world.maps.all().first());
+        Array<Tile> walls = new Array<>();
+        float[][] threaded = new float[world.width()][world.height()];
+        world.pathfinder.setThreaded(true);
+
+        try{
+            world.pathfinder.activateTeamPath(waveTeam);
+
+            //change events are fired manually below, instead of being posted to the application thread
+            world.beginMapLoad();
+
+            //walls on open tiles, which mostly raise weights, and one removed again, which lowers them
+            for(int x = 0; x < world.width() && walls.size < 40; x += 7){
+                for(int y = 0; y < world.height() && walls.size < 40; y += 5){
+                    Tile tile = world.tile(x, y);
+                    if(tile.block() == Blocks.air && !tile.solid()){
+                        tile.setBlock(DefenseBlocks.copperWall, waveTeam);
+                        Events.fire(new TileChangeEvent(tile));
+                        walls.add(tile);
+                    }
+                }
+            }
+
+            assertTrue(walls.size > 0);
+            walls.first().setBlock(Blocks.air);
+            Events.fire(new TileChangeEvent(walls.first()));
+
+            long start = System.currentTimeMillis();
+            while(world.pathfinder.isSearching(waveTeam)){
+                world.pathfinder.update();
+                assertTrue(System.currentTimeMillis() - start < 10000, "Worker did not finish");
+                Thread.yield();
+            }
+
+            for(int x = 0; x < world.width(); x++){
+                for(int y = 0; y < world.height(); y++){
+                    threaded[x][y] = world.pathfinder.getValueForTeam(waveTeam, x, y);
+                }
+            }
+        }finally{
+            world.pathfinder.setThreaded(false);
+        }
+
+        world.pathfinder.activateTeamPath(waveTeam);
+
+        for(int x = 0; x < world.width(); x++){
+            for(int y = 0; y < world.height(); y++){
+                assertEquals(world.pathfinder.getValueForTeam(waveTeam, x, y), threaded[x][y], "Threaded field mismatch at " + x + ", " + y);
+            }
+        }
+
+        for(Tile tile : walls){
+            setPathBlock(tile, Blocks.air);
+        }
+        world.endMapLoad();
+    }
+
+    @Test
+    void pathfinderDoors(){
+        world.loadMap(world.maps.all().first());
+        world.pathfinder.activateTeamPath(waveTeam);
+
+        Tile tile = null;
+        for(int x = 0; x < world.width() && tile == null; x++){
+            for(int y = 0; y < world.height(); y++){
+                if(world.tile(x, y).block() == Blocks.air && world.pathfinder.getValueForTeam(waveTeam, x, y) < Float.MAX_VALUE){
+                    tile = world.tile(x, y);
+                    break;
+                }
+            }
+        }
+
+        assertNotNull(tile);
+
+        //change events are fired manually below, instead of being posted to the application thread
+        world.beginMapLoad();
+
+        tile.setBlock(DefenseBlocks.door, waveTeam);
+        Events.fire(new TileChangeEvent(tile));
+        while(world.pathfinder.isSearching(waveTeam)){
+            world.pathfinder.update();
+        }
+        assertEquals(Float.MAX_VALUE, world.pathfinder.getValueForTeam(waveTeam, tile.x, tile.y));
+
+        //opening a door is not a tile change, but must still make it passable
+        tile.<DoorEntity>entity().open = true;
+        world.pathfinder.update();
+        while(world.pathfinder.isSearching(waveTeam)){
+            world.pathfinder.update();
+        }
+
+        float value = world.pathfinder.getValueForTeam(waveTeam, tile.x, tile.y);
+        assertTrue(value < Float.MAX_VALUE);
+
+        world.pathfinder.activateTeamPath(waveTeam);
+        assertEquals(world.pathfinder.getValueForTeam(waveTeam, tile.x, tile.y), value);
+
+        setPathBlock(tile, Blocks.air);
+        world.endMapLoad();
+    }
+
+    @Test
+    void hierarchicalMatchesDijkstra(){
+        int width = 80, height = 70;
+        Random random = new Random(0);
+
+        world.beginMapLoad();
+        Tile[][] tiles = world.createTiles(width, height);
+        for(int x = 0; x < width; x++){
+            for(int y = 0; y < height; y++){
+                byte wall = random.nextFloat() < 0.2f ? DefenseBlocks.copperWall.id : Blocks.air.id;
+                tiles[x][y] = new Tile(x, y, Blocks.stone.id, wall, (byte)0, (byte)Team.blue.ordinal(), (byte)0);
+            }
+        }
+        world.endMapLoad();
+
+        IntArray route = new IntArray();
+        float ratio = 0f;
+        int found = 0;
+
+        for(int i = 0; i < 300; i++){
+            Tile from = world.tile(random.nextInt(width), random.nextInt(height));
+            Tile to = world.tile(random.nextInt(width), random.nextInt(height));
+            if(from.solid() || to.solid() || from == to) continue;
+
+            int optimal = dijkstraCost(from, to);
+            boolean result = world.routes.findPath(from, to, route);
+
+            assertEquals(optimal != Integer.MAX_VALUE, result, "Route existence mismatch from " + from + " to " + to);
+            if(!result){
+                assertEquals(0, route.size);
+                continue;
+            }
+
+            int cost = routeCost(from, to, route);
+            assertTrue(cost >= optimal, "Route cheaper than the optimum from " + from + " to " + to);
+            //abstract routes may detour through entrances, at most by about a cluster per crossing
+            assertTrue(cost <= optimal * 3 + 32, "Route too long from " + from + " to " + to + ": " + cost + " vs " + optimal);
+
+            ratio += (float)cost / optimal;
+            found++;
+        }
+
+        assertTrue(found > 0);
+        Log.info("Hierarchical routes: {0} found, {1} of optimal cost on average", found, ratio / found);
+    }
+
+    @Test
+    void hierarchicalRepair(){
+        int width = 64, height = 40;
+
+        world.beginMapLoad();
+        Tile[][] tiles = world.createTiles(width, height);
+        for(int x = 0; x < width; x++){
+            for(int y = 0; y < height; y++){
+                byte wall = x == 20 && y != 10 ? DefenseBlocks.copperWall.id : Blocks.air.id;
+                tiles[x][y] = new Tile(x, y, Blocks.stone.id, wall, (byte)0, (byte)Team.blue.ordinal(), (byte)0);
+            }
+        }
+        world.endMapLoad();
+
+        Tile from = world.tile(5, 20), to = world.tile(40, 20);
+        IntArray route = new IntArray();
+
+        assertTrue(world.routes.findPath(from, to, route));
+        routeCost(from, to, route);
+        assertTrue(route.contains(world.tile(20, 10).packedPosition()));
+
+        //change events are fired manually below, instead of being posted to the application thread
+        world.beginMapLoad();
+
+        setPathBlock(world.tile(20, 10), DefenseBlocks.copperWall);
+        assertFalse(world.routes.findPath(from, to, route));
+        assertEquals(0, route.size);
+
+        setPathBlock(world.tile(20, 30), Blocks.air);
+        assertTrue(world.routes.findPath(from, to, route));
+        routeCost(from, to, route);
+        assertTrue(route.contains(world.tile(20, 30).packedPosition()));
+
+        //doors open and close without a tile change
+        Tile door = world.tile(20, 30);
+        setPathBlock(door, DefenseBlocks.door);
+        assertFalse(world.routes.findPath(from, to, route));
+
+        door.<DoorEntity>entity().open = true;
+        world.routes.update();
+        assertTrue(world.routes.findPath(from, to, route));
+        assertTrue(route.contains(door.packedPosition()));
+
+        int doorVersion = world.routes.version(route);
+        door.<DoorEntity>entity().open = false;
+        world.routes.update();
+        assertNotEquals(doorVersion, world.routes.version(route));
+        assertFalse(world.routes.findPath(from, to, route));
+
+        door.<DoorEntity>entity().open = true;
+        world.routes.update();
+        assertTrue(world.routes.findPath(from, to, route));
+        routeCost(from, to, route);
+
+        //changes far away from a route don't invalidate it
+        int version = world.routes.version(), routeVersion = world.routes.version(route);
+        setPathBlock(world.tile(60, 38), DefenseBlocks.copperWall);
+        assertNotEquals(version, world.routes.version());
+        assertEquals(routeVersion, world.routes.version(route));
+
+        setPathBlock(world.tile(25, 30), DefenseBlocks.copperWall);
+        assertNotEquals(routeVersion, world.routes.version(route));
+
+        world.endMapLoad();
+    }
+
+    @Test
+    void hierarchicalCore(){
+        int size = 48;
+
+        world.beginMapLoad();
+        Tile[][] tiles = world.createTiles(size, size);
+        for(int x = 0; x < size; x++){
+            for(int y = 0; y < size; y++){
+                tiles[x][y] = new Tile(x, y, Blocks.stone.id, Blocks.air.id);
+            }
+        }
+        //on a cluster border, so that the core spans two clusters
+        world.setBlock(tiles[16][20], StorageBlocks.core, defaultTeam);
+        world.endMapLoad();
+
+        Tile core = world.tile(16, 20);
+        for(Tile tile : core.getLinkedTiles(new Array<>())){
+            assertTrue(tile.solid());
+        }
+
+        IntArray route = new IntArray();
+        for(Tile from : new Tile[]{world.tile(5, 5), world.tile(40, 40), world.tile(2, 21)}){
+            assertTrue(world.routes.findPath(from, core, route), "No route to core from " + from);
+            routeCost(from, core, route);
+        }
+    }
+
+    /**Checks that a route is contiguous and only goes through passable tiles or the goal block, then returns its cost.*/
+    int routeCost(Tile from, Tile to, IntArray route){
+        Tile last = from;
+        int cost = 0;
+
+        for(int i = 0; i < route.size; i++){
+            Tile tile = world.tile(route.get(i));
+            assertEquals(1, Math.abs(tile.x - last.x) + Math.abs(tile.y - last.y), "Gap in route at " + tile);
+            assertFalse(tile.solid() && tile.target() != to.target(), "Route through solid tile " + tile);
+            cost += tile.cost;
+            last = tile;
+        }
+
+        assertEquals(to, last);
+        return cost;
+    }
+
+    /**Plain Dijkstra over the passable tiles, with the cost of each step being the cost of the tile entered.*/
+    int dijkstraCost(Tile from, Tile to){
+        int[] costs = new int[world.width() * world.height()];
+        Arrays.fill(costs, Integer.MAX_VALUE);
+        PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+
+        costs[from.packedPosition()] = 0;
+        queue.add(new long[]{0, from.packedPosition()});
+
+        while(!queue.isEmpty()){
+            long[] next = queue.poll();
+            Tile tile = world.tile((int)next[1]);
+            if(next[0] > costs[tile.packedPosition()]) continue;
+            if(tile == to) return (int)next[0];
+
+            for(GridPoint2 point : Geometry.d4){
+                Tile other = world.tile(tile.x + point.x, tile.y + point.y);
+                if(other == null || other.solid()) continue;
+
+                int cost = (int)next[0] + other.cost;
+                if(cost < costs[other.packedPosition()]){
+                    costs[other.packedPosition()] = cost;
+                    queue.add(new long[]{cost, other.packedPosition()});
+                }
+            }
+        }
+
+        return Integer.MAX_VALUE;
+    }
+
+    /**Places an impassable wall for the wave team and returns how many tiles the pathfinder touched to account for it.*/
+    long touchedByWall(Tile tile, boolean incremental){
+        world.pathfinder.setIncremental(incremental);
+        world.pathfinder.activateTeamPath(waveTeam);
+
+        long before = world.pathfinder.getTouchedTiles(waveTeam);
+        tile.setBlock(DefenseBlocks.copperWall, waveTeam);
+        Events.fire(new TileChangeEvent(tile));
+
+        while(world.pathfinder.isSearching(waveTeam)){
+            world.pathfinder.update();
+        }
+
+        return world.pathfinder.getTouchedTiles(waveTeam) - before;
+    }
+
+    void setPathBlock(Tile tile, Block block){
+        tile.setBlock(block);
+        Events.fire(new TileChangeEvent(tile));
+
+        while(world.pathfinder.isSearching(waveTeam)){
+            world.pathfinder.update();
+        }
+    }
+
+    /**Compares the flow field of a team against a plain FIFO relaxation over the same tiles.*/
+    void checkFlowField(Team team){
+        world.pathfinder.activateTeamPath(team);
+
+        float[][] weights = new float[world.width()][world.height()];
+        Queue<Tile> frontier = new Queue<>();
+
+        for(int x = 0; x < world.width(); x++){
+            for(int y = 0; y < world.height(); y++){
+                Tile tile = world.tile(x, y);
+                if(tile.block().flags != null && state.teams.areEnemies(tile.getTeam(), team) && tile.block().flags.contains(BlockFlag.target)){
+                    frontier.addFirst(tile);
+                    weights[x][y] = 0;
+                }else{
+                    weights[x][y] = Float.MAX_VALUE;
+                }
+            }
+        }
+
+        while(frontier.size > 0){
+            Tile tile = frontier.removeLast();
+            float cost = weights[tile.x][tile.y];
+
+            for(GridPoint2 point : Geometry.d4){
+                Tile other = world.tile(tile.x + point.x, tile.y + point.y);
+
+                if(other != null && weights[other.x][other.y] > cost + other.cost
+                        && (!other.solid() || (other.breakable() && other.getTeam() != team))){
+                    weights[other.x][other.y] = cost + other.cost;
+                    frontier.addFirst(other);
+                }
+            }
+        }
+
+        for(int x = 0; x < world.width(); x++){
+            for(int y = 0; y < world.height(); y++){
+                assertEquals(weights[x][y], world.pathfinder.getValueForTeam(team, x, y), "Flow field mismatch at " + x + ", " + y);
+            }
+        }
+    }
+
+    @Test
+    void findTileMatchesScan(){
+        int size = 160;
+        float range = 220f;
+        Tile[][] tiles = world.createTiles(size, size);
+
+        world.beginMapLoad();
+        for(int x = 0; x < size; x++){
+            for(int y = 0; y < size; y++){
+                byte wall = (x + y) % 4 == 0 ? DefenseBlocks.copperWall.id : Blocks.air.id;
+                tiles[x][y] = new Tile(x, y, Blocks.stone.id, wall, (byte)0, (byte)Team.blue.ordinal(), (byte)0);
+            }
+        }
+        world.endMapLoad();
+
+        Random random = new Random(0);
+        Array<TileEntity> nearest = new Array<>();
+        long indexed = 0, scanned = 0;
+        int queries = 2000;
+
+        for(int i = 0; i < queries; i++){
+            float x = random.nextFloat() * size * tilesize, y = random.nextFloat() * size * tilesize;
+
+            long time = System.nanoTime();
+            TileEntity found = Units.findEnemyTile(Team.red, x, y, range, tile -> true);
+            indexed += System.nanoTime() - time;
+
+            time = System.nanoTime();
+            TileEntity expected = scanClosest(Team.blue, x, y, range);
+            scanned += System.nanoTime() - time;
+
+            assertEquals(expected == null, found == null);
+            if(expected != null){
+                assertEquals(Vector2.dst(x, y, expected.x, expected.y), Vector2.dst(x, y, found.x, found.y), 0.001f);
+            }
+
+            world.indexer.findTiles(Team.blue, x, y, range, 5, tile -> true, nearest);
+            for(int j = 1; j < nearest.size; j++){
+                assertTrue(Vector2.dst(x, y, nearest.get(j - 1).x, nearest.get(j - 1).y) <= Vector2.dst(x, y, nearest.get(j).x, nearest.get(j).y));
+            }
+            if(found != null){
+                assertEquals(Vector2.dst(x, y, found.x, found.y), Vector2.dst(x, y, nearest.first().x, nearest.first().y), 0.001f);
+            }
+        }
+
+        Log.info("Target acquisition over {0} blocks: {1} ns indexed, {2} ns scanned per query.",
+            size * size / 4, indexed / queries, scanned / queries);
+    }
+
+    /**Finds the closest tile entity by checking every tile in range.*/
+    TileEntity scanClosest(Team team, float x, float y, float range){
+        TileEntity closest = null;
+        float dst = 0;
+
+        for(int tx = world.toTile(x - range); tx <= world.toTile(x + range); tx++){
+            for(int ty = world.toTile(y - range); ty <= world.toTile(y + range); ty++){
+                Tile other = world.tile(tx, ty);
+
+                if(other == null || other.target().entity == null || other.getTeam() != team) continue;
+
+                TileEntity e = other.target().entity;
+                float ndst = Vector2.dst(x, y, e.x, e.y);
+                if(ndst < range && (closest == null || ndst < dst)){
+                    dst = ndst;
+                    closest = e;
+                }
+            }
+        }
+
+        return closest;
+    }
+
+    @Test
+    void deltaSnapshots() throws IOException{
+        world.loadMap(world.maps.all().first());
+        logic.runWave();
+        unitGroups[waveTeam.ordinal()].updateEvents();
+
+        Player player = new Player();
+        player.con = new NetConnection(0, "test"){
+            @Override
+            public void send(Object object, SendMode mode){}
+
+            @Override
+            public void close(){}
+        };
+        player.con.viewX = world.width() * tilesize / 2f;
+        player.con.viewY = world.height() * tilesize / 2f;
+        player.con.viewWidth = world.width() * tilesize;
+        player.con.viewHeight = world.height() * tilesize;
+
+        EntitySnapshot base = new EntitySnapshot(), next = new EntitySnapshot();
+        base.clear(0);
+        next.clear(1);
+
+        int full = snapshotLength(player, null, base);
+        int delta = snapshotLength(player, base, next);
+
+        assertTrue(base.size() > 0);
+        assertEquals(base.size(), next.size());
+        assertTrue(delta < full);
+
+        unitGroups[waveTeam.ordinal()].all().first().remove();
+        unitGroups[waveTeam.ordinal()].updateEvents();
+
+        EntitySnapshot removed = new EntitySnapshot();
+        removed.clear(2);
+        snapshotLength(player, next, removed);
+
+        assertEquals(next.size() - 1, removed.size());
+
+        Log.info("Snapshot of {0} entities: {1} bytes full, {2} bytes delta.", base.size(), full, delta);
+    }
+
+    @Test
+    void unitSyncEncoding() throws IOException{
+        createMap();
+        Random random = new Random(0);
+        int units = 500, oldBytes = 0, newBytes = 0;
+
+        for(int i = 0; i < units; i++){
+            BaseUnit unit = UnitTypes.dagger.create(i % 2 == 0 ? defaultTeam : waveTeam);
+            unit.add();
+            unit.set(random.nextFloat() * 4000f, random.nextFloat() * 4000f);
+            unit.rotation = random.nextFloat() * 360f;
+            unit.health = random.nextFloat() * unit.maxHealth();
+            unit.getVelocity().set(random.nextFloat() * 4f - 2f, random.nextFloat() * 4f - 2f);
+            if(i % 10 == 0) unit.applyEffect(StatusEffects.wet, 1f);
+            if(i % 5 == 0) unit.inventory.addItem(Items.copper, 1 + random.nextInt(10));
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream stream = new DataOutputStream(bytes);
+            unit.write(stream);
+            byte[] written = bytes.toByteArray();
+
+            BaseUnit read = (BaseUnit) TypeTrait.getTypeByID(unit.getTypeID()).get();
+            read.read(new DataInputStream(new ByteArrayInputStream(written)), 0);
+
+            assertEquals(unit.getTeam(), read.getTeam());
+            assertEquals(unit.x, read.getInterpolator().target.x, 1f / 8f);
+            assertEquals(unit.y, read.getInterpolator().target.y, 1f / 8f);
+            assertEquals(unit.health, read.health, unit.maxHealth() / 1000f);
+            assertEquals(unit.inventory.getItem().amount, read.inventory.getItem().amount);
+            assertEquals(unit.hasEffect(StatusEffects.wet), read.hasEffect(StatusEffects.wet));
+
+            //entity ID, length and type ID, followed by the data
+            newBytes += varIntLength(unit.getID()) + varIntLength(written.length + 1) + 1 + written.length;
+
+            //previously: int ID, short length and type ID, followed by the save data without the wave flag and spawner
+            bytes.reset();
+            unit.writeSave(stream);
+            oldBytes += 4 + 2 + 1 + bytes.size() - 1 - 4;
+        }
+
+        assertTrue(newBytes < oldBytes);
+        Log.info("Unit sync: {0} bytes per unit, {1} before.", newBytes / (float)units, oldBytes / (float)units);
+    }
+
+    int varIntLength(int value){
+        int length = 1;
+        while((value >>>= 7) != 0) length++;
+        return length;
+    }
+
+    @Test
+    void snapshotCulling() throws IOException{
+        world.loadMap(world.maps.all().first());
+        logic.runWave();
+        unitGroups[waveTeam.ordinal()].updateEvents();
+
+        BaseUnit unit = unitGroups[waveTeam.ordinal()].all().first();
+        Rectangle view = new Rectangle().setSize(world.width() * tilesize / 3f, world.height() * tilesize / 3f).setCenter(unit.x, unit.y);
+
+        Player player = new Player();
+        player.con = new NetConnection(0, "test"){
+            @Override
+            public void send(Object object, SendMode mode){}
+
+            @Override
+            public void close(){}
+        };
+        player.con.viewX = unit.x;
+        player.con.viewY = unit.y;
+        player.con.viewWidth = view.width;
+        player.con.viewHeight = view.height;
+
+        EntitySnapshot culled = new EntitySnapshot();
+        culled.clear(0);
+        snapshotLength(player, null, culled);
+
+        int expected = 0;
+        for(EntityGroup<?> group : Entities.getAllGroups()){
+            if(group.isEmpty() || !(group.all().get(0) instanceof SyncTrait)) continue;
+            boolean clipped = ((SyncTrait) group.all().get(0)).isClipped();
+
+            for(Entity entity : group.all()){
+                if(((SyncTrait) entity).isSyncing() && (!clipped || view.contains(entity.getX(), entity.getY()))){
+                    expected++;
+                    assertNotEquals(-1, culled.find(group.getID(), entity.getID()));
+                }
+            }
+        }
+
+        assertEquals(expected, culled.size());
+    }
+
+    @Test
+    void invokePacketRoundTrip(){
+        int length = 40, iterations = 100000;
+        ByteBuffer arguments = ByteBuffer.allocateDirect(64);
+        for(int i = 0; i < length; i++){
+            arguments.put((byte)i);
+        }
+
+        InvokePacket sent = new InvokePacket();
+        sent.type = 3;
+        sent.priority = 1;
+        sent.writeBuffer = arguments;
+        sent.writeLength = length;
+
+        InvokePacket recieved = new InvokePacket();
+        ByteBuffer wire = ByteBuffer.allocate(256);
+        ByteBuffer buffer = null;
+
+        long time = System.nanoTime();
+        for(int i = 0; i < iterations; i++){
+            wire.clear();
+            sent.write(wire);
+            wire.flip();
+            recieved.read(wire);
+
+            if(i == 0) buffer = recieved.writeBuffer;
+        }
+        time = System.nanoTime() - time;
+
+        assertEquals(0, wire.remaining());
+        assertSame(buffer, recieved.writeBuffer);
+        assertEquals(sent.type, recieved.type);
+        assertEquals(sent.priority, recieved.priority);
+        assertEquals(length, recieved.writeLength);
+        assertEquals(length, recieved.writeBuffer.remaining());
+        for(int i = 0; i < length; i++){
+            assertEquals((byte)i, recieved.writeBuffer.get());
+        }
+
+        Log.info("Invoke packet round trip: {0} ns.", time / iterations);
+    }
+
+    @Test
+    void invokeBatchRoundTrip(){
+        ByteBuffer batch = ByteBuffer.allocate(512);
+        InvokePacket packet = new InvokePacket();
+        packet.writeBuffer = ByteBuffer.allocate(32);
+
+        for(int i = 0; i < 10; i++){
+            packet.type = (byte)i;
+            packet.writeBuffer.clear();
+            packet.writeBuffer.putInt(i * 1000);
+            packet.writeLength = packet.writeBuffer.position();
+            packet.write(batch);
+        }
+        batch.flip();
+
+        InvokeBatchPacket sent = new InvokeBatchPacket();
+        sent.data = batch;
+        ByteBuffer wire = ByteBuffer.allocate(1024);
+        sent.write(wire);
+        wire.flip();
+
+        InvokeBatchPacket recieved = new InvokeBatchPacket();
+        recieved.read(wire);
+        assertEquals(0, wire.remaining());
+
+        InvokePacket entry = new InvokePacket();
+        for(int i = 0; i < 10; i++){
+            entry.read(recieved.data);
+            assertEquals((byte)i, entry.type);
+            assertEquals(4, entry.writeLength);
+            assertEquals(i * 1000, entry.writeBuffer.getInt());
+        }
+        assertFalse(recieved.data.hasRemaining());
+    }
+
+    @Test
+    void sleepingTileEntities(){
+        createMap();
+        world.setBlock(world.tile(2, 2), DistributionBlocks.conveyor, Team.blue);
+        Tile tile = world.tile(2, 2);
+
+        tileScheduler.update();
+        assertEquals(1, tileScheduler.activeCount());
+
+        for(int i = 0; i < TileEntity.timeToSleep + 1; i++){
+            tileScheduler.update();
+        }
+
+        assertTrue(tile.entity.isSleeping());
+        assertEquals(1, tileScheduler.sleepingCount());
+        tileScheduler.update();
+        assertEquals(0, tileScheduler.activeCount());
+        assertTrue(tileGroup.all().contains(tile.entity, true));
+
+        tile.block().handleItem(Items.copper, tile, world.tile(1, 2));
+        assertFalse(tile.entity.isSleeping());
+        assertEquals(0, tileScheduler.sleepingCount());
+        tileScheduler.update();
+        assertEquals(1, tileScheduler.activeCount());
+
+        world.removeBlock(tile);
+        tileScheduler.update();
+        assertEquals(0, tileScheduler.activeCount());
+    }
+
+    @Test
+    void backedUpConveyorsSleep(){
+        createMap();
+        world.setBlock(world.tile(1, 2), DebugBlocks.itemSource, Team.blue);
+        world.tile(1, 2).<SorterEntity>entity().sortItem = Items.copper;
+        for(int x = 2; x <= 5; x++){
+            world.setBlock(world.tile(x, 2), DistributionBlocks.conveyor, Team.blue);
+        }
+        world.setBlock(world.tile(6, 2), DefenseBlocks.copperWall, Team.blue);
+
+        for(int i = 0; i < 1000; i++){
+            tileScheduler.update();
+        }
+
+        //the last belt has nowhere to go, but is not waiting for another belt
+        assertTrue(world.tile(2, 2).entity.isSleeping());
+        assertTrue(world.tile(4, 2).entity.isSleeping());
+        assertFalse(world.tile(5, 2).entity.isSleeping());
+
+        //making room at the end wakes up the belts behind it, one after another
+        world.tile(5, 2).block().removeStack(world.tile(5, 2), Items.copper, 10);
+        for(int i = 0; i < 60; i++){
+            tileScheduler.update();
+        }
+
+        assertFalse(world.tile(4, 2).entity.isSleeping());
+        assertFalse(world.tile(3, 2).entity.isSleeping());
+    }
+
+    @Test
+    void conveyorItemBuffer() throws IOException{
+        createMap();
+        world.setBlock(world.tile(2, 2), DistributionBlocks.conveyor, Team.blue);
+        world.setBlock(world.tile(4, 2), DistributionBlocks.conveyor, Team.blue);
+        Tile tile = world.tile(2, 2), other = world.tile(4, 2);
+        Block conveyor = tile.block();
+
+        //stacks are inserted at the back, so the buffer wraps around before it grows past 8 items
+        conveyor.handleStack(Items.copper, 4, tile, null);
+        conveyor.handleStack(Items.lead, 6, tile, null);
+        assertEquals(1, conveyor.removeStack(tile, Items.copper, 1));
+
+        byte[] expected = {Items.lead.id, Items.lead.id, Items.lead.id, Items.lead.id, Items.lead.id, Items.lead.id,
+            Items.copper.id, Items.copper.id, Items.copper.id};
+        assertArrayEquals(expected, conveyorItems(tile));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        tile.entity.write(new DataOutputStream(bytes));
+        other.entity.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertArrayEquals(expected, conveyorItems(other));
+
+        //read items start at the beginning of the buffer, so this wraps around again
+        conveyor.handleStack(Items.copper, 1, other, null);
+        assertEquals(6, conveyor.removeStack(other, Items.lead, 6));
+        assertArrayEquals(new byte[]{Items.copper.id, Items.copper.id, Items.copper.id, Items.copper.id}, conveyorItems(other));
+    }
+
+    /**@return item IDs on a conveyor from back to front, as written to saves.*/
+    byte[] conveyorItems(Tile tile) throws IOException{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        tile.entity.write(new DataOutputStream(bytes));
+
+        DataInputStream stream = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        byte[] ids = new byte[stream.readInt()];
+        for(int i = 0; i < ids.length; i++){
+            ids[i] = Bits.getBytes(stream.readInt(), new byte[4])[0];
+        }
+        return ids;
+    }
+
+    /**Partitioned updates use their own update order, which differs from the serial tick, but not with the amount of threads.*/
+    @Test
+    void partitionedTileUpdateThreadIndependent() throws IOException{
+        long single = tileStateHash(1);
+        long parallel = tileStateHash(4);
+        assertEquals(single, parallel);
+    }
+
+    /**Runs a conveyor network across several update regions, and returns a hash of all tile entity state.*/
+    long tileStateHash(int threads) throws IOException{
+        resetWorld();
+        tileScheduler.setThreads(threads);
+
+        try{
+            Tile[][] tiles = world.createTiles(64, 64);
+
+            world.beginMapLoad();
+            for(int x = 0; x < tiles.length; x++){
+                for(int y = 0; y < tiles[0].length; y++){
+                    tiles[x][y] = new Tile(x, y, (byte)0, (byte)0);
+                }
+            }
+            world.endMapLoad();
+
+            //clockwise ring with routers in two corners, crossing region borders
+            for(int i = 8; i < 56; i++){
+                setTransport(i, 8, DistributionBlocks.conveyor, 0);
+                setTransport(56, i, DistributionBlocks.conveyor, 1);
+                setTransport(i + 1, 56, DistributionBlocks.conveyor, 2);
+                setTransport(8, i + 1, DistributionBlocks.conveyor, 3);
+            }
+            setTransport(56, 8, DistributionBlocks.router, 0);
+            setTransport(8, 56, DistributionBlocks.router, 0);
+
+            //branch into a vault, which is not updated concurrently
+            setTransport(32, 56, DistributionBlocks.router, 0);
+            setTransport(32, 57, DistributionBlocks.conveyor, 1);
+            world.setBlock(world.tile(32, 59), StorageBlocks.vault, Team.blue);
+
+            for(int x = 10; x < 50; x += 3){
+                Tile tile = world.tile(x, 8);
+                tile.block().handleStack(x % 2 == 0 ? Items.copper : Items.lead, 2, tile, null);
+            }
+
+            for(int i = 0; i < 600; i++){
+                tileScheduler.update();
+            }
+
+            CRC32 crc = new CRC32();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream stream = new DataOutputStream(bytes);
+
+            for(int x = 0; x < world.width(); x++){
+                for(int y = 0; y < world.height(); y++){
+                    Tile tile = world.tile(x, y);
+                    if(tile.entity == null || tile.isLinked()) continue;
+
+                    stream.writeInt(tile.packedPosition());
+                    if(tile.entity.items != null) tile.entity.items.write(stream);
+                    tile.entity.write(stream);
+                }
+            }
+
+            stream.close();
+            crc.update(bytes.toByteArray());
+            assertTrue(world.tile(32, 59).entity.items.total() > 0);
+            return crc.getValue();
+        }finally{
+            tileScheduler.setThreads(0);
+        }
+    }
+
+    void setTransport(int x, int y, Block block, int rotation){
+        Tile tile = world.tile(x, y);
+        tile.setRotation((byte)rotation);
+        world.setBlock(tile, block, Team.blue);
+    }
+
+    @Test
+    void batchedBulletCollisions(){
+        createMap();
+        state.teams.add(defaultTeam, waveTeam);
+        state.teams.add(waveTeam, defaultTeam);
+
+        BaseUnit friend = UnitTypes.dagger.create(defaultTeam);
+        friend.set(30, 30);
+        friend.add();
+        BaseUnit enemy = UnitTypes.dagger.create(waveTeam);
+        enemy.set(40, 30);
+        enemy.add();
+        BaseUnit bystander = UnitTypes.dagger.create(waveTeam);
+        bystander.set(40, 60);
+        bystander.add();
+
+        //a bullet that moved past both units in one tick
+        Bullet bullet = Bullet.create(StandardBullets.copper, null, defaultTeam, 0, 0, 0f);
+        bullet.set(55, 30);
+        bullet.lastPosition().set(15, 30);
+
+        for(EntityGroup<?> group : unitGroups){
+            group.updateEvents();
+        }
+        bulletGroup.updateEvents();
+
+        BulletBatch batch = new BulletBatch();
+        batch.collide();
+
+        assertEquals(1, batch.bulletCount());
+        assertEquals(3, batch.unitCount());
+        assertEquals(friend.maxHealth(), friend.health);
+        assertEquals(bystander.maxHealth(), bystander.health);
+        assertTrue(enemy.health < enemy.maxHealth());
+    }
+
+    @Test
+    void powerGraphSplitting(){
+        createPowerGrid(60, 50);
+        PowerGraph graph = world.tile(0, 0).entity.power.graph;
+        assertEquals(60 * 50, graph.size());
+
+        world.removeBlock(world.tile(30, 25));
+        assertEquals(60 * 50 - 1, graph.size());
+        assertSame(graph, world.tile(30, 24).entity.power.graph);
+        assertSame(graph, world.tile(59, 49).entity.power.graph);
+
+        //removing a whole column cuts the grid in two
+        for(int y = 0; y < 50; y++){
+            world.removeBlock(world.tile(40, y));
+        }
+
+        PowerGraph left = world.tile(0, 0).entity.power.graph, right = world.tile(59, 49).entity.power.graph;
+        assertNotSame(left, right);
+        assertEquals(40 * 50 - 1, left.size());
+        assertEquals(19 * 50, right.size());
+        assertSame(right, world.tile(41, 0).entity.power.graph);
+        assertSame(left, world.tile(39, 49).entity.power.graph);
+    }
+
+    @Test
+    void worldRegionStreaming() throws IOException{
+        int width = 70, height = 40;
+        createPowerGrid(width, height);
+        world.removeBlock(world.tile(10, 10));
+
+        WorldImage image = new WorldImage();
+        image.update(0);
+        assertEquals(3 * 2, image.regions());
+
+        //the region containing the position comes first
+        int[] order = image.order(65 * tilesize, 5 * tilesize);
+        assertEquals(image.regions(), order.length);
+        assertEquals(2, order[0]);
+
+        Tile[][] original = world.getTiles();
+        Tile[][] loaded = new Tile[width][height];
+        world.beginMapLoad(loaded);
+
+        for(int region : order){
+            byte[] record = image.region(region);
+            DataInputStream stream = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(record, 4, record.length - 4)));
+            NetworkIO.loadRegion(stream);
+        }
+
+        world.endMapLoad();
+
+        for(int x = 0; x < width; x++){
+            for(int y = 0; y < height; y++){
+                assertNotNull(loaded[x][y]);
+                assertEquals(original[x][y].getFloorID(), loaded[x][y].getFloorID());
+                assertEquals(original[x][y].getBlockID(), loaded[x][y].getBlockID());
+                assertEquals(original[x][y].getTeam(), loaded[x][y].getTeam());
+            }
+        }
+    }
+
+    @Test
+    void worldImageCache(){
+        world.beginMapLoad();
+        Tile[][] tiles = world.createTiles(70, 40);
+        for(int x = 0; x < tiles.length; x++){
+            for(int y = 0; y < tiles[0].length; y++){
+                tiles[x][y] = new Tile(x, y, Blocks.stone.id, (byte)0);
+            }
+        }
+        world.setBlock(tiles[5][5], DefenseBlocks.copperWall, defaultTeam);
+        world.endMapLoad();
+
+        WorldImage image = new WorldImage();
+        assertEquals(6, image.update(0));
+        assertEquals(0, image.update(0));
+        //walls never change on their own, so nothing is compressed again in later ticks
+        assertEquals(0, image.update(1));
+
+        byte[] first = image.region(0), second = image.region(1);
+        world.setBlock(world.tile(40, 10), DefenseBlocks.copperWall, defaultTeam);
+        assertEquals(1, image.update(2));
+        assertSame(first, image.region(0));
+        assertNotSame(second, image.region(1));
+
+        TileEntity.onTileDamage(world.tile(5, 5), 10f);
+        assertEquals(1, image.update(3));
+        assertNotSame(first, image.region(0));
+
+        //awake entities may change every tick
+        world.setBlock(world.tile(5, 35), DebugBlocks.itemSource, defaultTeam);
+        tileGroup.updateEvents();
+        assertEquals(1, image.update(4));
+        assertEquals(0, image.update(4));
+        assertEquals(1, image.update(5));
+
+        //entities that are never updated only change through other blocks, units and players
+        Tile vault = world.tile(65, 35);
+        world.setBlock(vault, StorageBlocks.vault, defaultTeam);
+        image.update(6);
+        byte[] stored = image.region(5);
+        image.update(7);
+        assertSame(stored, image.region(5));
+
+        vault.block().handleStack(Items.copper, 10, vault, null);
+        image.update(8);
+        assertNotSame(stored, image.region(5));
+    }
+
+    /**Creates a map filled with a grid of batteries, which form a single power graph.*/
+    static void createPowerGrid(int width, int height){
+        world.beginMapLoad();
+        Tile[][] tiles = world.createTiles(width, height);
+        for(int x = 0; x < width; x++){
+            for(int y = 0; y < height; y++){
+                tiles[x][y] = new Tile(x, y, Blocks.stone.id, (byte)0);
+            }
+        }
+
+        for(int x = 0; x < width; x++){
+            for(int y = 0; y < height; y++){
+                world.setBlock(tiles[x][y], PowerBlocks.battery, defaultTeam);
+            }
+        }
+        world.endMapLoad();
+    }
+
+    String millis(long nanos){
+        return String.format("%.3f", nanos / 1000000.0);
+    }
+
+    int snapshotLength(Player player, EntitySnapshot base, EntitySnapshot current) throws IOException{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream stream = new DataOutputStream(bytes);
+        netServer.writeSnapshot(player, stream, base, current);
+        stream.close();
+        return bytes.size();
+    }
+
     void depositTest(Block block, Item item){
         BaseUnit unit = UnitTypes.alphaDrone.create(Team.none);
         Tile tile = new Tile(0, 0, Blocks.air.id, block.id);
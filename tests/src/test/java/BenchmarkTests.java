@@ -0,0 +1,327 @@
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.ObjectMap;
+import mindustryV4.content.Items;
+import mindustryV4.content.UnitTypes;
+import mindustryV4.content.blocks.Blocks;
+import mindustryV4.content.blocks.DebugBlocks;
+import mindustryV4.content.blocks.DefenseBlocks;
+import mindustryV4.content.blocks.DistributionBlocks;
+import mindustryV4.content.blocks.StorageBlocks;
+import mindustryV4.content.blocks.TurretBlocks;
+import mindustryV4.content.bullets.StandardBullets;
+import mindustryV4.core.GameState.State;
+import mindustryV4.core.TickProfiler;
+import mindustryV4.entities.bullet.Bullet;
+import mindustryV4.entities.bullet.BulletBatch;
+import mindustryV4.entities.units.BaseUnit;
+import mindustryV4.maps.Map;
+import mindustryV4.maps.MapMeta;
+import mindustryV4.world.Block;
+import mindustryV4.world.Tile;
+import mindustryV4.world.blocks.distribution.Sorter.SorterEntity;
+import mindustryV4.world.blocks.power.PowerGraph;
+import ucore.core.Timers;
+import ucore.entities.Entities;
+import ucore.entities.EntityGroup;
+import ucore.entities.EntityQuery;
+import ucore.util.Log;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static mindustryV4.Vars.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Benchmarks that only log their results. Not part of the default test task; run them with the benchmark task. */
+@Tag("benchmark")
+public class BenchmarkTests{
+
+    @BeforeAll
+    static void launchApplication(){
+        ApplicationTests.launchApplication();
+    }
+
+    @BeforeEach
+    void resetWorld(){
+        Timers.setDeltaProvider(() ->  1f);
+        logic.reset();
+        state.set(State.menu);
+    }
+
+    /**Compares the batched bullet collision pass with colliding bullets against every unit group separately.*/
+    @Test
+    void bulletCollisionBenchmark(){
+        int size = 128, unitAmount = 500, bulletAmount = 3000, passes = 200;
+        Random random = new Random(0);
+
+        world.beginMapLoad();
+        Tile[][] tiles = world.createTiles(size, size);
+        for(int x = 0; x < size; x++){
+            for(int y = 0; y < size; y++){
+                tiles[x][y] = new Tile(x, y, Blocks.stone.id, (byte)0);
+            }
+        }
+        world.endMapLoad();
+        EntityQuery.resizeTree(0, 0, size * tilesize, size * tilesize);
+
+        state.teams.add(defaultTeam, waveTeam);
+        state.teams.add(waveTeam, defaultTeam);
+
+        for(int i = 0; i < unitAmount; i++){
+            BaseUnit unit = UnitTypes.dagger.create(i % 2 == 0 ? defaultTeam : waveTeam);
+            unit.set(random.nextFloat() * size * tilesize, random.nextFloat() * size * tilesize);
+            unit.add();
+        }
+
+        //bullets never hit anything, so every pass does the same work
+        for(int i = 0; i < bulletAmount; i++){
+            Bullet bullet = Bullet.create(StandardBullets.copper, null, i % 2 == 0 ? defaultTeam : waveTeam,
+                random.nextFloat() * size * tilesize, random.nextFloat() * size * tilesize, random.nextFloat() * 360f);
+            bullet.supress();
+        }
+
+        bulletGroup.updateEvents();
+        for(Bullet bullet : bulletGroup.all()){
+            bullet.lastPosition().set(bullet.x - bullet.getVelocity().x, bullet.y - bullet.getVelocity().y);
+        }
+
+        //builds the unit trees used by the per-group path
+        for(EntityGroup<BaseUnit> group : unitGroups){
+            Entities.update(group);
+        }
+        Entities.update(playerGroup);
+
+        BulletBatch batch = new BulletBatch();
+        Runnable batched = batch::collide;
+        Runnable grouped = () -> {
+            for(EntityGroup<BaseUnit> group : unitGroups){
+                if(!group.isEmpty()) EntityQuery.collideGroups(bulletGroup, group);
+            }
+            EntityQuery.collideGroups(bulletGroup, playerGroup);
+        };
+
+        for(int i = 0; i < passes / 4; i++){
+            batched.run();
+            grouped.run();
+        }
+
+        long batchedTime = 0, groupedTime = 0;
+        for(int i = 0; i < passes; i++){
+            long start = System.nanoTime();
+            batched.run();
+            batchedTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            grouped.run();
+            groupedTime += System.nanoTime() - start;
+        }
+
+        assertEquals(bulletAmount, batch.bulletCount());
+        assertEquals(unitAmount, batch.unitCount());
+
+        Log.info("Bullet collisions ({0} units, {1} bullets): {2} ms/pass batched, {3} ms/pass per group.",
+            unitAmount, bulletAmount, millis(batchedTime / passes), millis(groupedTime / passes));
+    }
+
+    /**Logs the time taken to remove blocks from a large power grid, compared to rebuilding the graph after each removal.*/
+    @Test
+    void powerGraphRemovalBenchmark(){
+        int width = 60, height = 50, removals = 200;
+        Random random = new Random(0);
+        ApplicationTests.createPowerGrid(width, height);
+
+        long removeTime = 0, rebuildTime = 0;
+        for(int i = 0; i < removals; i++){
+            Tile tile = world.tile(random.nextInt(width), random.nextInt(height));
+            if(tile.entity == null) continue;
+
+            long start = System.nanoTime();
+            world.removeBlock(tile);
+            removeTime += System.nanoTime() - start;
+        }
+
+        //what every removal used to cost: walking the whole graph again
+        Tile root = world.tile(0, 0);
+        while(root.entity == null){
+            root = world.tile(root.x + 1, 0);
+        }
+
+        PowerGraph graph = root.entity.power.graph;
+        for(int i = 0; i < removals; i++){
+            long start = System.nanoTime();
+            graph.clear();
+            graph.reflow(root);
+            rebuildTime += System.nanoTime() - start;
+        }
+
+        Log.info("Power graph ({0} blocks): {1} ms/removal, {2} ms/full rebuild.",
+            width * height, millis(removeTime / removals), millis(rebuildTime / removals));
+    }
+
+    @Test
+    void tickBenchmark(){
+        //scenario size, length and layout can be changed with system properties, e.g. -Dbenchmark.size=256
+        int size = Integer.getInteger("benchmark.size", 128);
+        int ticks = Integer.getInteger("benchmark.ticks", 600);
+        long seed = Long.getLong("benchmark.seed", 0L);
+
+        runOnApplicationThread(() -> {
+            try{
+                createBenchmarkScenario(seed, size);
+                runTickBenchmark(seed, size, ticks);
+            }finally{
+                state.set(State.menu);
+                logic.reset();
+            }
+        });
+    }
+
+    /**Creates a map with a core, an enemy spawn, and randomly placed turret lines fed by item sources.*/
+    void createBenchmarkScenario(long seed, int size){
+        Random random = new Random(seed);
+        resetWorld();
+        world.setSector(null);
+        world.setMap(new Map("Benchmark", new MapMeta(0, new ObjectMap<>(), size, size, null), true, () -> null));
+
+        state.teams.add(defaultTeam, waveTeam);
+        state.teams.add(waveTeam, defaultTeam);
+
+        world.beginMapLoad();
+        Tile[][] tiles = world.createTiles(size, size);
+        for(int x = 0; x < size; x++){
+            for(int y = 0; y < size; y++){
+                tiles[x][y] = new Tile(x, y, Blocks.stone.id, (byte)0);
+            }
+        }
+        EntityQuery.resizeTree(0, 0, size * tilesize, size * tilesize);
+
+        world.setBlock(tiles[12][size / 2], StorageBlocks.core, defaultTeam);
+        tiles[size - 6][size / 2].setBlock(Blocks.spawn);
+
+        int bases = size * size / 1024;
+        for(int i = 0; i < bases; i++){
+            int length = 4 + random.nextInt(7);
+            int x = 20 + random.nextInt(size * 3 / 4 - 20 - length - 3);
+            int y = 6 + random.nextInt(size - 12);
+
+            boolean free = true;
+            for(int cx = x; cx <= x + length + 2; cx++){
+                for(int cy = y - 1; cy <= y + 1; cy++){
+                    free &= tiles[cx][cy].block() == Blocks.air;
+                }
+            }
+            if(!free) continue;
+
+            world.setBlock(tiles[x][y], DebugBlocks.itemSource, defaultTeam);
+            tiles[x][y].<SorterEntity>entity().sortItem = Items.copper;
+
+            for(int cx = x + 1; cx <= x + length; cx++){
+                Block block = i % 3 == 0 && cx == x + length / 2 ? DistributionBlocks.router : DistributionBlocks.conveyor;
+                tiles[cx][y].setRotation((byte)0);
+                world.setBlock(tiles[cx][y], block, defaultTeam);
+            }
+
+            world.setBlock(tiles[x + length + 1][y], TurretBlocks.duo, defaultTeam);
+            world.setBlock(tiles[x + length + 1][y - 1], DefenseBlocks.copperWall, defaultTeam);
+            world.setBlock(tiles[x + length + 1][y + 1], DefenseBlocks.copperWall, defaultTeam);
+        }
+
+        world.endMapLoad();
+
+        for(int i = 0; i < size / 8; i++){
+            BaseUnit unit = UnitTypes.dagger.create(defaultTeam);
+            unit.set((16 + random.nextInt(16)) * tilesize, (size / 2 - 8 + random.nextInt(16)) * tilesize);
+            unit.add();
+        }
+
+        logic.play();
+    }
+
+    /**Runs the current scenario and logs the time and memory used per tick, followed by the time used by each stage of the tick.*/
+    void runTickBenchmark(long seed, int size, int ticks){
+        int warmup = ticks / 4, waveSpacing = 120;
+
+        for(int i = 0; i < warmup; i++){
+            if(i % waveSpacing == 0) logic.runWave();
+            logic.update();
+        }
+
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean allocations = threads instanceof com.sun.management.ThreadMXBean;
+        long thread = Thread.currentThread().getId();
+        long allocated = allocations ? ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(thread) : 0;
+        long[] times = new long[ticks];
+        profiler.reset();
+
+        for(int i = 0; i < ticks; i++){
+            long start = System.nanoTime();
+            if(i % waveSpacing == 0) logic.runWave();
+            logic.update();
+            times[i] = System.nanoTime() - start;
+        }
+
+        if(allocations){
+            allocated = ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(thread) - allocated;
+        }
+
+        int units = 0;
+        for(EntityGroup<BaseUnit> group : unitGroups){
+            units += group.size();
+        }
+        assertTrue(units > 0);
+
+        long total = 0;
+        for(long time : times){
+            total += time;
+        }
+        Arrays.sort(times);
+
+        Log.info("Tick benchmark (seed {0}, {1}x{1}, {2} ticks): {3} ms/tick mean, {4} p50, {5} p99, {6} max.", seed, size, ticks,
+            millis(total / ticks), millis(times[ticks / 2]), millis(times[ticks * 99 / 100]), millis(times[ticks - 1]));
+        Log.info("  {0} units, {1} bullets, {2} active / {3} sleeping tile entities, {4} KB allocated per tick.",
+            units, bulletGroup.size(), tileScheduler.activeCount(), tileScheduler.sleepingCount(), allocations ? allocated / ticks / 1024 : "?");
+
+        //time of each part of the tick, as recorded by the profiler
+        assertEquals(Math.min(ticks, TickProfiler.window), profiler.ticks());
+        for(int i = 0; i < profiler.stages(); i++){
+            Log.info("  {0}: {1} p50, {2} p99, {3} max.", profiler.name(i),
+                millis(profiler.percentile(i, 0.5f)), millis(profiler.percentile(i, 0.99f)), millis(profiler.max(i)));
+        }
+    }
+
+    String millis(long nanos){
+        return String.format("%.3f", nanos / 1000000.0);
+    }
+
+    /**Runs code on the application thread, which is the one that updates modules, and waits for it to finish.*/
+    void runOnApplicationThread(Runnable run){
+        Throwable[] error = {null};
+        CountDownLatch latch = new CountDownLatch(1);
+
+        Gdx.app.postRunnable(() -> {
+            try{
+                run.run();
+            }catch(Throwable t){
+                error[0] = t;
+            }finally{
+                latch.countDown();
+            }
+        });
+
+        try{
+            latch.await();
+        }catch(InterruptedException e){
+            fail(e);
+        }
+
+        if(error[0] != null){
+            fail(error[0]);
+        }
+    }
+}